@@ -0,0 +1,344 @@
+//Assignment 9: MINESWEEPER (board archive)
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+//a file of many boards of one configuration, read through memory mapped buffers.
+//the file is a 32 byte header followed by fixed width records, all big-endian:
+//  header: int magic (MSWA), int version, int rows, int cols, int mines,
+//          int record bytes, long record count
+//  record: long seed, int 3BV, int openings, then one bit per cell for the mines
+//          (low bit first), so an expert board takes 76 bytes
+//records are found by index with no search, and everything is read with absolute
+//gets straight from the mapped file, so looking at a record allocates nothing and
+//any number of threads can read at once
+class BoardArchive {
+  static final int MAGIC = 0x4D535741;
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 32;
+  static final int RECORD_HEADER_BYTES = 16;
+  //a mapped buffer can't reach past 2GB, so the records are mapped in segments of
+  //about a gigabyte, each holding a whole number of records
+  static final long SEGMENT_BYTES = 1L << 30;
+  
+  int rows;
+  int cols;
+  int mines;
+  int recordBytes;
+  long count;
+  MappedByteBuffer[] segments;
+  int recordsPerSegment;
+  
+  //constructor, mapping the archive in the given file
+  BoardArchive(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) {
+          throw new IllegalArgumentException("not a board archive");
+        }
+      }
+      header.flip();
+      if (header.getInt() != MAGIC) {
+        throw new IllegalArgumentException("not a board archive");
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("unsupported archive version " + version);
+      }
+      this.rows = header.getInt();
+      this.cols = header.getInt();
+      this.mines = header.getInt();
+      this.recordBytes = header.getInt();
+      this.count = header.getLong();
+      if (this.rows <= 0 || this.cols <= 0 || this.mines < 0
+          || this.mines >= (long) this.rows * this.cols || this.count < 0
+          || this.recordBytes != recordBytes(this.rows, this.cols)
+          || HEADER_BYTES + this.count * this.recordBytes > channel.size()) {
+        throw new IllegalArgumentException("the board archive is damaged");
+      }
+      
+      this.recordsPerSegment = (int) Math.max(1, SEGMENT_BYTES / this.recordBytes);
+      int segmentCount = (int) ((this.count + this.recordsPerSegment - 1) / this.recordsPerSegment);
+      this.segments = new MappedByteBuffer[segmentCount];
+      for (int k = 0; k < segmentCount; k++) {
+        long first = (long) k * this.recordsPerSegment;
+        long records = Math.min(this.recordsPerSegment, this.count - first);
+        this.segments[k] = channel.map(FileChannel.MapMode.READ_ONLY,
+            HEADER_BYTES + first * this.recordBytes, records * this.recordBytes);
+      }
+    }
+  }
+  
+  //how many bytes a record of a board with the given size takes
+  static int recordBytes(int rows, int cols) {
+    return RECORD_HEADER_BYTES + (int) (((long) rows * cols + 7) / 8);
+  }
+  
+  //the number of boards in the archive
+  long size() {
+    return this.count;
+  }
+  
+  //the buffer holding the given record
+  MappedByteBuffer segmentOf(long record) {
+    return this.segments[(int) (record / this.recordsPerSegment)];
+  }
+  
+  //where the given record starts in its buffer
+  int offsetOf(long record) {
+    return (int) (record % this.recordsPerSegment) * this.recordBytes;
+  }
+  
+  //the seed the given board was made from
+  long seed(long record) {
+    return this.segmentOf(record).getLong(this.offsetOf(record));
+  }
+  
+  //the 3BV of the given board
+  int bbbv(long record) {
+    return this.segmentOf(record).getInt(this.offsetOf(record) + 8);
+  }
+  
+  //the openings of the given board
+  int openings(long record) {
+    return this.segmentOf(record).getInt(this.offsetOf(record) + 12);
+  }
+  
+  //is there a mine on the given cell of the given board?
+  boolean isMine(long record, int cell) {
+    int at = this.offsetOf(record) + RECORD_HEADER_BYTES + (cell >>> 3);
+    return (this.segmentOf(record).get(at) & (1 << (cell & 7))) != 0;
+  }
+  
+  //how many mines the given board has, counted from its bitmap
+  int mineCount(long record) {
+    MappedByteBuffer segment = this.segmentOf(record);
+    int at = this.offsetOf(record) + RECORD_HEADER_BYTES;
+    int end = this.offsetOf(record) + this.recordBytes;
+    int total = 0;
+    for (; at + 8 <= end; at += 8) {
+      total += Long.bitCount(segment.getLong(at));
+    }
+    for (; at < end; at++) {
+      total += Integer.bitCount(segment.get(at) & 0xFF);
+    }
+    return total;
+  }
+  
+  //sets the game up with the given board, ready for its first click.
+  //the game must have the archive's size
+  void loadInto(long record, Game game) {
+    if (game.rows != this.rows || game.cols != this.cols) {
+      throw new IllegalArgumentException("the game is not the size of the archive's boards");
+    }
+    game.gameOver = false;
+    game.gameWon = false;
+    game.clickCount = 0;
+    game.numMines = this.mines;
+    game.clearBoard();
+    for (int cell = 0; cell < game.board.size(); cell++) {
+      if (this.isMine(record, cell)) {
+        game.board.setMine(cell, true);
+      }
+    }
+    game.minesPlaced = true;
+    game.hiddenSafeCells = game.board.size() - this.mines;
+    game.measureBoard();
+  }
+  
+  //measures every board on the given number of threads and collects the
+  //measurements into a histogram, which comes out the same on any number of threads
+  Histogram scan(IRecordMeasure measure, int threads) {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      return pool.invoke(new ArchiveScanTask(this, measure, 0, this.count));
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+  
+  //writes count boards made from seeds drawn from the master seed (as Simulation
+  //seeds its boards) to a new archive in the given file
+  static void generate(Path file, int rows, int cols, int mines, long count, long masterSeed)
+      throws IOException {
+    Game game = new Game(rows, cols, mines, new Random(masterSeed), true);
+    try (BoardArchiveWriter writer = new BoardArchiveWriter(file, rows, cols, mines)) {
+      for (long board = 0; board < count; board++) {
+        long seed = Simulation.boardSeed(masterSeed, board);
+        game.rand.setSeed(seed);
+        game.resetGame();
+        writer.add(game, seed);
+      }
+    }
+  }
+  
+  //generates an archive of expert boards, or scans one for its 3BV,
+  //usage: java BoardArchive generate file count [seed]
+  //       java BoardArchive scan file [threads]
+  public static void main(String[] args) throws IOException {
+    Path file = Path.of(args[1]);
+    if (args[0].equals("generate")) {
+      long count = Long.parseLong(args[2]);
+      long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+      long start = System.nanoTime();
+      generate(file, 16, 30, 99, count, seed);
+      System.out.println(count + " boards in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+    else {
+      int threads = args.length > 2 ? Integer.parseInt(args[2])
+          : Runtime.getRuntime().availableProcessors();
+      BoardArchive archive = new BoardArchive(file);
+      long start = System.nanoTime();
+      Histogram bbbv = archive.scan((board, record) -> board.bbbv(record), threads);
+      long nanos = System.nanoTime() - start;
+      System.out.println(archive.size() + " boards, 3BV " + bbbv.summary() + ", "
+          + String.format("%.0f", archive.size() / (nanos / 1e9)) + " boards/second");
+    }
+  }
+  
+}
+
+//a measurement of one board of an archive, for BoardArchive.scan
+interface IRecordMeasure {
+  
+  //the measurement of the given board (0 or more)
+  int measure(BoardArchive archive, long record);
+  
+}
+
+//measures a range of an archive's boards, splitting it in half until it is small
+//enough to measure on one thread (by range alone, as SimulationTask does)
+class ArchiveScanTask extends RecursiveTask<Histogram> {
+  private static final long serialVersionUID = 1L;
+  static final long CHUNK = 16384;
+  BoardArchive archive;
+  IRecordMeasure measure;
+  long first;
+  long last;
+  
+  //constructor
+  ArchiveScanTask(BoardArchive archive, IRecordMeasure measure, long first, long last) {
+    this.archive = archive;
+    this.measure = measure;
+    this.first = first;
+    this.last = last;
+  }
+  
+  //measures the range, or splits it and merges the halves
+  protected Histogram compute() {
+    if (this.last - this.first <= CHUNK) {
+      Histogram histogram = new Histogram();
+      for (long record = this.first; record < this.last; record++) {
+        histogram.add(this.measure.measure(this.archive, record));
+      }
+      return histogram;
+    }
+    long middle = (this.first + this.last) >>> 1;
+    ArchiveScanTask left = new ArchiveScanTask(this.archive, this.measure, this.first, middle);
+    ArchiveScanTask right = new ArchiveScanTask(this.archive, this.measure, middle, this.last);
+    left.fork();
+    Histogram histogram = right.compute();
+    histogram.merge(left.join());
+    return histogram;
+  }
+  
+}
+
+//appends boards to a new archive file, through a buffer that is written out
+//whenever it fills. the record count in the header is filled in on close
+class BoardArchiveWriter implements AutoCloseable {
+  FileChannel channel;
+  ByteBuffer buffer;
+  int rows;
+  int cols;
+  int mines;
+  int recordBytes;
+  long count;
+  
+  //constructor, creating (or replacing) the file and leaving room for the header
+  BoardArchiveWriter(Path file, int rows, int cols, int mines) throws IOException {
+    this.rows = rows;
+    this.cols = cols;
+    this.mines = mines;
+    this.recordBytes = BoardArchive.recordBytes(rows, cols);
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    this.buffer = ByteBuffer.allocateDirect(Math.max(1 << 16, this.recordBytes));
+    this.buffer.position(BoardArchive.HEADER_BYTES);
+  }
+  
+  //appends the game's board, which must have its mines placed, and the seed it came from
+  void add(Game game, long seed) throws IOException {
+    if (game.rows != this.rows || game.cols != this.cols || game.numMines != this.mines) {
+      throw new IllegalArgumentException("the game is not the archive's configuration");
+    }
+    if (!game.minesPlaced) {
+      throw new IllegalArgumentException("the game's mines are not placed yet");
+    }
+    if (this.buffer.remaining() < this.recordBytes) {
+      this.flush();
+    }
+    this.buffer.putLong(seed);
+    this.buffer.putInt(game.bbbv);
+    this.buffer.putInt(game.openings);
+    IBoard board = game.board;
+    int bits = 0;
+    int pending = 0;
+    for (int cell = 0; cell < board.size(); cell++) {
+      if (board.isMine(cell)) {
+        bits |= 1 << pending;
+      }
+      pending++;
+      if (pending == 8) {
+        this.buffer.put((byte) bits);
+        bits = 0;
+        pending = 0;
+      }
+    }
+    if (pending > 0) {
+      this.buffer.put((byte) bits);
+    }
+    this.count++;
+  }
+  
+  //writes out what is in the buffer
+  void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+  
+  //writes out the last records and the header, and closes the file
+  public void close() throws IOException {
+    try {
+      this.flush();
+      ByteBuffer header = ByteBuffer.allocate(BoardArchive.HEADER_BYTES);
+      header.putInt(BoardArchive.MAGIC);
+      header.putInt(BoardArchive.VERSION);
+      header.putInt(this.rows);
+      header.putInt(this.cols);
+      header.putInt(this.mines);
+      header.putInt(this.recordBytes);
+      header.putLong(this.count);
+      header.flip();
+      while (header.hasRemaining()) {
+        this.channel.write(header, header.position());
+      }
+    }
+    finally {
+      this.channel.close();
+    }
+  }
+  
+}
@@ -0,0 +1,248 @@
+//Assignment 9: MINESWEEPER (benchmarks)
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+//throughput and allocation benchmarks for the engine's hot paths, across board
+//sizes and mine densities, so regressions show up as the engine changes:
+//  construct        new classic Game (initializeGrid, linkNeighbors and placeMines;
+//                   a packed board has no grid to build or link)
+//  reset            resetGame over and over on one unplayed game, so each board is
+//                   cleared in place and has its mines placed again
+//  checkWin         checkWinCondition (the full recount) part way through a game
+//  scene/full       MineWorld.makeScene redrawing the whole board
+//  scene/idle       MineWorld.makeScene with nothing changed
+//  cascade/cell     Cell.reveal on an empty board, which opens every cell
+//  cascade/game     Game.reveal on an empty board, which opens every cell
+//  clear            emptying the board in place, which both cascades do first
+//each benchmark is warmed up, then run for a number of timed iterations in batches
+//big enough that reading the clock costs nothing next to them. the bytes allocated
+//come from the thread's allocation counter, so they count every allocation the
+//benchmark makes, whatever the garbage collector does with it
+class Benchmarks {
+  static final int[][] SIZES = {{9, 9}, {16, 16}, {16, 30}, {30, 30}};
+  static final double[] DENSITIES = {0.12, 0.16, 0.21};
+  //what the benchmarks return is added up here, so their work can't be thrown away
+  static long sink;
+  
+  //only the benchmarks whose names start with this are run
+  String filter;
+  //how many iterations warm up, and are measured, and how long each one runs
+  int warmups;
+  int iterations;
+  long iterationNanos;
+  com.sun.management.ThreadMXBean threads;
+  ArrayList<BenchmarkResult> results;
+  
+  //constructor
+  Benchmarks(String filter, int warmups, int iterations, long iterationMillis) {
+    if (warmups < 0 || iterations < 1 || iterationMillis < 1) {
+      throw new IllegalArgumentException("a benchmark needs at least one measured "
+          + "iteration of at least a millisecond");
+    }
+    this.filter = filter;
+    this.warmups = warmups;
+    this.iterations = iterations;
+    this.iterationNanos = iterationMillis * 1000000;
+    this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    this.results = new ArrayList<BenchmarkResult>();
+  }
+  
+  //runs every benchmark that passes the filter, returns their results
+  ArrayList<BenchmarkResult> runAll() {
+    Random rand = new Random(1);
+    for (int[] size : SIZES) {
+      int rows = size[0];
+      int cols = size[1];
+      for (double density : DENSITIES) {
+        int mines = (int) Math.round(rows * cols * density);
+        this.run("construct", rows, cols, mines,
+            () -> new Game(rows, cols, mines, rand).numMines);
+        
+        Game resetting = new Game(rows, cols, mines, rand);
+        this.run("reset", rows, cols, mines, () -> {
+          resetting.resetGame();
+          return resetting.bbbv;
+        });
+        
+        Game playing = this.playing(rows, cols, mines);
+        this.run("checkWin", rows, cols, mines, () -> {
+          playing.checkWinCondition();
+          return playing.hiddenSafeCells;
+        });
+        
+        MineWorld world = new MineWorld(playing);
+        this.run("scene/full", rows, cols, mines, () -> {
+          playing.fullRedraw = true;
+          return world.makeScene() != null ? 1 : 0;
+        });
+        this.run("scene/idle", rows, cols, mines, () -> world.makeScene() != null ? 1 : 0);
+      }
+      
+      Game empty = new Game(rows, cols, 0, rand);
+      Cell corner = empty.grid.get(0).get(0);
+      this.run("cascade/cell", rows, cols, 0, () -> {
+        empty.board.clear();
+        corner.reveal();
+        return empty.board.isRevealed(rows * cols - 1) ? 1 : 0;
+      });
+      this.run("cascade/game", rows, cols, 0, () -> {
+        empty.board.clear();
+        empty.diff.begin();
+        return empty.reveal(0);
+      });
+      this.run("clear", rows, cols, 0, () -> {
+        empty.board.clear();
+        return empty.board.size();
+      });
+    }
+    return this.results;
+  }
+  
+  //a game of the given size with a few safe cells revealed and a few mines flagged
+  Game playing(int rows, int cols, int mines) {
+    Game game = new Game(rows, cols, mines, new Random(rows * 31 + mines));
+    Random moves = new Random(2);
+    for (int k = 0; k < rows * cols / 4 && !game.gameOver; k++) {
+      int index = moves.nextInt(rows * cols);
+      if (game.board.isMine(index)) {
+        game.rightClick(index / cols, index % cols);
+      }
+      else {
+        game.leftClick(index / cols, index % cols);
+      }
+    }
+    return game;
+  }
+  
+  //measures one benchmark if it passes the filter, returns its result (or null)
+  BenchmarkResult run(String name, int rows, int cols, int mines, IBenchmark benchmark) {
+    if (!name.startsWith(this.filter)) {
+      return null;
+    }
+    //warms up, doubling the batch until one takes about a millisecond
+    long batch = 1;
+    long warmupEnd = System.nanoTime() + this.warmups * this.iterationNanos;
+    do {
+      long start = System.nanoTime();
+      for (long k = 0; k < batch; k++) {
+        sink += benchmark.run();
+      }
+      if (System.nanoTime() - start < 1000000) {
+        batch *= 2;
+      }
+    } while (System.nanoTime() < warmupEnd);
+    
+    BenchmarkResult result = new BenchmarkResult(name, rows, cols, mines, this.iterations);
+    long thread = Thread.currentThread().getId();
+    for (int iteration = 0; iteration < this.iterations; iteration++) {
+      long ops = 0;
+      long allocated = this.threads.getThreadAllocatedBytes(thread);
+      long start = System.nanoTime();
+      long now;
+      do {
+        for (long k = 0; k < batch; k++) {
+          sink += benchmark.run();
+        }
+        ops += batch;
+        now = System.nanoTime();
+      } while (now - start < this.iterationNanos);
+      result.add(iteration, ops, now - start,
+          this.threads.getThreadAllocatedBytes(thread) - allocated);
+    }
+    this.results.add(result);
+    return result;
+  }
+  
+  //runs the benchmarks and prints a table of their results,
+  //usage: java Benchmarks [name prefix] [iterations] [milliseconds per iteration]
+  public static void main(String[] args) {
+    String filter = args.length > 0 ? args[0] : "";
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    long millis = args.length > 2 ? Long.parseLong(args[2]) : 200;
+    Benchmarks benchmarks = new Benchmarks(filter, 2, iterations, millis);
+    System.out.println(BenchmarkResult.HEADER);
+    for (BenchmarkResult result : benchmarks.runAll()) {
+      System.out.println(result.row());
+    }
+  }
+  
+}
+
+//one operation of a benchmark
+interface IBenchmark {
+  
+  //does the operation once, returning anything that depends on its work
+  long run();
+  
+}
+
+//the measurements of one benchmark with one board size and mine count
+class BenchmarkResult {
+  static final String HEADER = String.format("%-14s %4s %4s %5s %14s %12s %10s %9s",
+      "benchmark", "rows", "cols", "mines", "ops/s", "error", "B/op", "MB/s");
+  String name;
+  int rows;
+  int cols;
+  int mines;
+  //operations per second in each iteration
+  double[] rates;
+  long ops;
+  long nanos;
+  long bytes;
+  
+  //constructor, with the given number of iterations to come
+  BenchmarkResult(String name, int rows, int cols, int mines, int iterations) {
+    this.name = name;
+    this.rows = rows;
+    this.cols = cols;
+    this.mines = mines;
+    this.rates = new double[iterations];
+  }
+  
+  //records one measured iteration
+  void add(int iteration, long ops, long nanos, long bytes) {
+    this.rates[iteration] = ops / (nanos / 1e9);
+    this.ops += ops;
+    this.nanos += nanos;
+    this.bytes += bytes;
+  }
+  
+  //the mean operations per second over the iterations
+  double opsPerSecond() {
+    double sum = 0;
+    for (double rate : this.rates) {
+      sum += rate;
+    }
+    return sum / this.rates.length;
+  }
+  
+  //the standard deviation of the operations per second over the iterations
+  double error() {
+    double mean = this.opsPerSecond();
+    double sum = 0;
+    for (double rate : this.rates) {
+      sum += (rate - mean) * (rate - mean);
+    }
+    return this.rates.length < 2 ? 0 : Math.sqrt(sum / (this.rates.length - 1));
+  }
+  
+  //the bytes allocated by one operation
+  double bytesPerOp() {
+    return this.ops == 0 ? 0 : (double) this.bytes / this.ops;
+  }
+  
+  //the megabytes allocated per second
+  double allocationRate() {
+    return this.nanos == 0 ? 0 : this.bytes / (this.nanos / 1e9) / 1e6;
+  }
+  
+  //the result as a row of the table under HEADER
+  String row() {
+    return String.format("%-14s %4d %4d %5d %14.1f %12.1f %10.1f %9.1f", this.name, this.rows,
+        this.cols, this.mines, this.opsPerSecond(), this.error(), this.bytesPerOp(),
+        this.allocationRate());
+  }
+  
+}
@@ -0,0 +1,208 @@
+//Assignment 9: MINESWEEPER (state diffs)
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+//what one move changed on a Game, for a front end that doesn't draw from the Game
+//itself (a remote or headless one): the cells that look different now, and the
+//header (clicks, flags, and whether the game is over) if it changed. the game fills
+//its diff in as a move runs, from markDirty, so a flood fill opening lands in one
+//diff however many cells it reveals. a diff is written as a small binary frame:
+//  byte    flags (RESET, HEADER, GAME_OVER, GAME_WON)
+//  varint  clicks, varint flags placed     only when HEADER is set
+//  varint  the number of cells
+//  varint  each cell in index order: (index - the index before - 1) << 4 | look
+//where a cell's look is one of the 12 CellImages states and the index before the
+//first cell is -1, so the cells of an opening, which sit close together, take about
+//a byte each. a move that changed nothing writes no bytes at all
+class StateDiff {
+  static final int RESET = 1;
+  static final int HEADER = 2;
+  static final int GAME_OVER = 4;
+  static final int GAME_WON = 8;
+  
+  Game game;
+  //the cells that changed, in the order they changed
+  int[] cells;
+  int count;
+  //whether the whole board started over (every cell hidden) before the changes
+  boolean reset;
+  //the header before the move
+  int clicksBefore;
+  int flagsBefore;
+  boolean overBefore;
+  boolean wonBefore;
+  
+  //constructor, for the given game's moves
+  StateDiff(Game game) {
+    this.game = game;
+    this.cells = new int[64];
+  }
+  
+  //starts the diff of a new move, forgetting the last one
+  void begin() {
+    this.count = 0;
+    this.reset = false;
+    this.clicksBefore = this.game.clickCount;
+    this.flagsBefore = this.game.flagCount;
+    this.overBefore = this.game.gameOver;
+    this.wonBefore = this.game.gameWon;
+  }
+  
+  //records that the cell at the given index looks different now
+  void add(int index) {
+    if (this.count == this.cells.length) {
+      this.cells = Arrays.copyOf(this.cells, this.cells.length * 2);
+    }
+    this.cells[this.count] = index;
+    this.count++;
+  }
+  
+  //makes this the diff from an empty board to the game as it is now, for a front
+  //end that is just starting out (or that missed frames)
+  StateDiff full() {
+    this.begin();
+    this.reset = true;
+    IBoard board = this.game.board;
+    for (int index = 0; index < board.size(); index++) {
+      if (board.isRevealed(index) || board.isFlagged(index)) {
+        this.add(index);
+      }
+    }
+    return this;
+  }
+  
+  //did the clicks, flags or game status change?
+  boolean headerChanged() {
+    return this.reset || this.clicksBefore != this.game.clickCount
+        || this.flagsBefore != this.game.flagCount || this.overBefore != this.game.gameOver
+        || this.wonBefore != this.game.gameWon;
+  }
+  
+  //did the move change nothing a front end would see?
+  boolean isEmpty() {
+    return this.count == 0 && !this.headerChanged();
+  }
+  
+  //how a cell looks now, one of the CellImages states
+  int lookOf(int index) {
+    IBoard board = this.game.board;
+    return CellImages.stateOf(board.isRevealed(index), board.isFlagged(index),
+        board.isMine(index), board.adjacentMines(index));
+  }
+  
+  //the most bytes the frame can take
+  int maxSize() {
+    return this.isEmpty() ? 0 : 1 + 10 + 10 + 5 + 5 * this.count;
+  }
+  
+  //writes the diff into the buffer as a frame, returns how many bytes it took.
+  //the cells are put in index order first, in place
+  int write(ByteBuffer out) {
+    if (this.isEmpty()) {
+      return 0;
+    }
+    int start = out.position();
+    boolean header = this.headerChanged();
+    out.put((byte) ((this.reset ? RESET : 0) | (header ? HEADER : 0)
+        | (this.game.gameOver ? GAME_OVER : 0) | (this.game.gameWon ? GAME_WON : 0)));
+    if (header) {
+      putVarint(out, this.game.clickCount);
+      putVarint(out, this.game.flagCount);
+    }
+    //a cell that changed twice is only sent once, as it looks now
+    Arrays.sort(this.cells, 0, this.count);
+    int distinct = 0;
+    for (int k = 0; k < this.count; k++) {
+      if (distinct == 0 || this.cells[k] != this.cells[distinct - 1]) {
+        this.cells[distinct] = this.cells[k];
+        distinct++;
+      }
+    }
+    this.count = distinct;
+    putVarint(out, this.count);
+    long before = -1;
+    for (int k = 0; k < this.count; k++) {
+      int index = this.cells[k];
+      putVarint(out, (index - before - 1) << 4 | this.lookOf(index));
+      before = index;
+    }
+    return out.position() - start;
+  }
+  
+  //a new buffer holding the diff as a frame, ready to be read
+  ByteBuffer toBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(this.maxSize());
+    this.write(buffer);
+    buffer.flip();
+    return buffer;
+  }
+  
+  //writes a number 7 bits at a time, low bits first, with the high bit of each byte
+  //set when more bytes follow (as MoveJournal does)
+  static void putVarint(ByteBuffer out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+  
+  //reads a number written by putVarint
+  static long getVarint(ByteBuffer in) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+  
+}
+
+//a front end's copy of how a game looks, kept up to date from StateDiff frames
+//alone, so it never learns where the hidden mines are
+class RemoteBoard {
+  //the look of every cell, one of the CellImages states
+  byte[] looks;
+  int clickCount;
+  int flagCount;
+  boolean gameOver;
+  boolean gameWon;
+  
+  //constructor, for a board of the given size with every cell hidden
+  RemoteBoard(int rows, int cols) {
+    this.looks = new byte[rows * cols];
+  }
+  
+  //applies one frame (an empty frame changes nothing)
+  void apply(ByteBuffer frame) {
+    if (!frame.hasRemaining()) {
+      return;
+    }
+    int flags = frame.get();
+    if ((flags & StateDiff.RESET) != 0) {
+      Arrays.fill(this.looks, (byte) CellImages.HIDDEN);
+    }
+    if ((flags & StateDiff.HEADER) != 0) {
+      this.clickCount = (int) StateDiff.getVarint(frame);
+      this.flagCount = (int) StateDiff.getVarint(frame);
+    }
+    this.gameOver = (flags & StateDiff.GAME_OVER) != 0;
+    this.gameWon = (flags & StateDiff.GAME_WON) != 0;
+    long count = StateDiff.getVarint(frame);
+    long index = -1;
+    for (long k = 0; k < count; k++) {
+      long cell = StateDiff.getVarint(frame);
+      index += (cell >>> 4) + 1;
+      if (index >= this.looks.length) {
+        throw new IllegalArgumentException("the frame has a cell past the end of the board");
+      }
+      this.looks[(int) index] = (byte) (cell & 15);
+    }
+  }
+  
+}
@@ -0,0 +1,293 @@
+//Assignment 9: MINESWEEPER (move journal)
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+//an append-only record of every move made on a Game: each left click, right click,
+//chord and reset the game didn't ignore is written as two varints, the move (cell index
+//shifted left 2, with the kind of move in the low 2 bits) and the milliseconds since
+//the move before, so a typical move takes 2 or 3 bytes.
+//every snapshotInterval moves (and after every reset that took a board from a pool,
+//whose mines don't come from the game's random) a GameSnapshot is kept as a
+//checkpoint. a snapshot carries the state of the game's random (and taking one
+//leaves the game alone), so replaying the moves after a checkpoint rebuilds the
+//game exactly, and seeking to any move replays at most snapshotInterval moves
+class MoveJournal {
+  static final int LEFT = 0;
+  static final int RIGHT = 1;
+  static final int RESET = 2;
+  static final int CHORD = 3;
+  static final int MAGIC = 0x4D53574A;
+  static final int VERSION = 1;
+  
+  //the encoded moves, and how many bytes and moves there are
+  byte[] log;
+  int length;
+  int moves;
+  //a checkpoint every this many moves
+  int snapshotInterval;
+  ArrayList<JournalCheckpoint> checkpoints;
+  //when the last move was made, in milliseconds
+  long lastMillis;
+  //the moves seek replays, handed to Game.play in one batch
+  int[] replay;
+  
+  //constructor, starting a journal of the game's moves from its current state
+  MoveJournal(Game game, int snapshotInterval) {
+    this(snapshotInterval);
+    this.lastMillis = System.currentTimeMillis();
+    this.checkpoint(game);
+    game.journal = this;
+  }
+  
+  //constructor for an empty journal, filled in by read()
+  MoveJournal(int snapshotInterval) {
+    if (snapshotInterval < 1) {
+      throw new IllegalArgumentException("the snapshot interval must be at least 1");
+    }
+    this.log = new byte[256];
+    this.replay = new int[16];
+    this.snapshotInterval = snapshotInterval;
+    this.checkpoints = new ArrayList<JournalCheckpoint>();
+  }
+  
+  //appends a move the game just made, called by Game
+  void record(Game game, int kind, int index) {
+    long now = System.currentTimeMillis();
+    this.writeVarint(((long) index << 2) | kind);
+    this.writeVarint(Math.max(0, now - this.lastMillis));
+    this.lastMillis = now;
+    this.moves++;
+    if (this.moves % this.snapshotInterval == 0 || (kind == RESET && game.pool != null)) {
+      this.checkpoint(game);
+    }
+  }
+  
+  //keeps a snapshot of the game as it is after the moves so far
+  void checkpoint(Game game) {
+    ByteBuffer snapshot = GameSnapshot.toBuffer(game);
+    this.checkpoints.add(new JournalCheckpoint(this.moves, this.length, snapshot.array()));
+  }
+  
+  //appends a number 7 bits at a time, low bits first, with the high bit of each
+  //byte set when more bytes follow
+  void writeVarint(long value) {
+    if (this.length + 10 > this.log.length) {
+      this.log = Arrays.copyOf(this.log, this.log.length * 2);
+    }
+    while ((value & ~0x7FL) != 0) {
+      this.log[this.length] = (byte) ((value & 0x7F) | 0x80);
+      this.length++;
+      value >>>= 7;
+    }
+    this.log[this.length] = (byte) value;
+    this.length++;
+  }
+  
+  //a reader over every move in the journal
+  JournalReader reader() {
+    return new JournalReader(this, 0, 0);
+  }
+  
+  //rebuilds the game as it was after the given number of moves
+  Game seek(int move) {
+    return this.seek(move, null);
+  }
+  
+  //rebuilds the game as it was after the given number of moves, into the reuse game
+  //if it has the same size and mode (see GameSnapshot.read): loads the last
+  //checkpoint at or before the move and replays the moves after it, in batches
+  //through Game.play (which stops at the end of each game) when they fit in an int.
+  //a game with a journal of its own can't be reused, as the replayed moves would
+  //be recorded in it
+  Game seek(int move, Game reuse) {
+    if (move < 0 || move > this.moves) {
+      throw new IllegalArgumentException("move " + move + " is not between 0 and " + this.moves);
+    }
+    if (reuse != null && reuse.journal != null) {
+      throw new IllegalArgumentException("a game with a journal can't be reused to seek");
+    }
+    JournalCheckpoint start = this.checkpoints.get(0);
+    for (JournalCheckpoint checkpoint : this.checkpoints) {
+      if (checkpoint.move <= move) {
+        start = checkpoint;
+      }
+    }
+    Game game = GameSnapshot.read(ByteBuffer.wrap(start.snapshot), reuse);
+    JournalReader reader = new JournalReader(this, start.offset, start.move);
+    if (game.board.size() > 1 << 30) {
+      while (reader.move < move && reader.next()) {
+        reader.apply(game);
+      }
+      return game;
+    }
+    
+    int count = 0;
+    while (reader.move < move && reader.next()) {
+      if (count == this.replay.length) {
+        this.replay = Arrays.copyOf(this.replay, count * 2);
+      }
+      this.replay[count] = reader.index << 2 | reader.kind;
+      count++;
+    }
+    int played = 0;
+    while (played < count) {
+      played += game.play(this.replay, played, count);
+    }
+    return game;
+  }
+  
+  //how many bytes write() takes
+  int size() {
+    int size = 24 + this.length;
+    for (JournalCheckpoint checkpoint : this.checkpoints) {
+      size += 12 + checkpoint.snapshot.length;
+    }
+    return size;
+  }
+  
+  //writes the journal into the buffer: a header (magic, version, snapshot interval,
+  //moves, log bytes, checkpoints), the log, then each checkpoint's move, log offset,
+  //snapshot size and snapshot
+  void write(ByteBuffer out) {
+    out.putInt(MAGIC);
+    out.putInt(VERSION);
+    out.putInt(this.snapshotInterval);
+    out.putInt(this.moves);
+    out.putInt(this.length);
+    out.putInt(this.checkpoints.size());
+    out.put(this.log, 0, this.length);
+    for (JournalCheckpoint checkpoint : this.checkpoints) {
+      out.putInt(checkpoint.move);
+      out.putInt(checkpoint.offset);
+      out.putInt(checkpoint.snapshot.length);
+      out.put(checkpoint.snapshot);
+    }
+  }
+  
+  //reads a journal written by write(). the counts, offsets and sizes in it are
+  //checked against each other and against the bytes left before anything is
+  //allocated, so a damaged journal is refused instead of read
+  static MoveJournal read(ByteBuffer in) {
+    if (in.getInt() != MAGIC) {
+      throw new IllegalArgumentException("not a move journal");
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("unsupported journal version " + version);
+    }
+    MoveJournal journal = new MoveJournal(in.getInt());
+    journal.moves = in.getInt();
+    journal.length = in.getInt();
+    int checkpoints = in.getInt();
+    //there is always a checkpoint at the start, and each one takes at least 12 bytes
+    if (journal.moves < 0 || journal.length < 0 || journal.length > in.remaining()
+        || checkpoints < 1 || checkpoints > (in.remaining() - journal.length) / 12) {
+      throw new IllegalArgumentException("the move journal is damaged");
+    }
+    journal.log = new byte[Math.max(256, journal.length)];
+    in.get(journal.log, 0, journal.length);
+    int lastMove = 0;
+    int lastOffset = 0;
+    for (int k = 0; k < checkpoints; k++) {
+      if (in.remaining() < 12) {
+        throw new IllegalArgumentException("the move journal is damaged");
+      }
+      int move = in.getInt();
+      int offset = in.getInt();
+      int size = in.getInt();
+      if ((k == 0 && (move != 0 || offset != 0)) || move < lastMove || move > journal.moves
+          || offset < lastOffset || offset > journal.length || size < 0
+          || size > in.remaining()) {
+        throw new IllegalArgumentException("the move journal is damaged");
+      }
+      byte[] snapshot = new byte[size];
+      in.get(snapshot);
+      journal.checkpoints.add(new JournalCheckpoint(move, offset, snapshot));
+      lastMove = move;
+      lastOffset = offset;
+    }
+    return journal;
+  }
+  
+}
+
+//a snapshot kept by a MoveJournal: the game after the given number of moves, and
+//where the moves after it start in the log
+class JournalCheckpoint {
+  int move;
+  int offset;
+  byte[] snapshot;
+  
+  //constructor
+  JournalCheckpoint(int move, int offset, byte[] snapshot) {
+    this.move = move;
+    this.offset = offset;
+    this.snapshot = snapshot;
+  }
+  
+}
+
+//steps through the moves of a MoveJournal. after next() returns true, kind, index
+//and millis describe the move, which is number move (counting from 1)
+class JournalReader {
+  MoveJournal journal;
+  int offset;
+  int move;
+  int kind;
+  int index;
+  //milliseconds since the move before
+  long millis;
+  
+  //constructor, starting at the given log offset, after the given number of moves
+  JournalReader(MoveJournal journal, int offset, int move) {
+    this.journal = journal;
+    this.offset = offset;
+    this.move = move;
+  }
+  
+  //reads the next move, returns false at the end of the journal
+  boolean next() {
+    if (this.offset >= this.journal.length) {
+      return false;
+    }
+    long encoded = this.readVarint();
+    this.kind = (int) (encoded & 3);
+    this.index = (int) (encoded >>> 2);
+    this.millis = this.readVarint();
+    this.move++;
+    return true;
+  }
+  
+  //reads a number written by MoveJournal.writeVarint
+  long readVarint() {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = this.journal.log[this.offset];
+      this.offset++;
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+  
+  //makes the move just read on the game
+  void apply(Game game) {
+    if (this.kind == MoveJournal.LEFT) {
+      game.leftClick(this.index / game.cols, this.index % game.cols);
+    }
+    else if (this.kind == MoveJournal.RIGHT) {
+      game.rightClick(this.index / game.cols, this.index % game.cols);
+    }
+    else if (this.kind == MoveJournal.CHORD) {
+      game.chord(this.index / game.cols, this.index % game.cols);
+    }
+    else {
+      game.resetGame();
+    }
+  }
+  
+}
@@ -1,7 +1,11 @@
 //Assignment 9: MINESWEEPER
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
 import tester.*;
 import javalib.impworld.*;
 import java.awt.Color;
@@ -14,6 +18,9 @@ class Cell {
   boolean isRevealed;
   boolean isFlagged;
   ArrayList<Cell> neighbors;
+  //how many of the neighbors are mines, kept up to date as neighbors are
+  //added and as mines are placed or moved so it never has to be recounted
+  int adjacentMines;
   
   //constructor
   Cell() {
@@ -21,6 +28,7 @@ class Cell {
     this.isRevealed = false;
     this.isFlagged = false;
     this.neighbors = new ArrayList<Cell>();
+    this.adjacentMines = 0;
   }
   
   //constructor for testing a mine's status
@@ -29,33 +37,55 @@ class Cell {
     this.isRevealed = false;
     this.isFlagged = false;
     this.neighbors = new ArrayList<Cell>();
+    this.adjacentMines = 0;
   }
   
   //adds a neighbor to this cell
   void addNeighbor(Cell neighbor) {
     this.neighbors.add(neighbor);
+    if (neighbor.isMine) {
+      this.adjacentMines++;
+    }
   }
   
-  //counts the number of neighboring mines this cell has
-  int countNeighboringMines() {
-    int count = 0;
-    for (Cell neighbor : this.neighbors) {
-      if (neighbor.isMine) {
-        count++;
+  //sets whether this cell is a mine and updates the cached count of each neighbor
+  //(on a grid, neighbors are linked both ways, so they are the cells that see this one)
+  void setMine(boolean mine) {
+    if (this.isMine != mine) {
+      this.isMine = mine;
+      int delta = mine ? 1 : -1;
+      //indexed, so placing mines doesn't allocate an iterator per mine
+      for (int k = 0; k < this.neighbors.size(); k++) {
+        this.neighbors.get(k).adjacentMines += delta;
       }
     }
-    return count;
   }
   
-  //reveal this cell (left click behavior)
+  //the number of neighboring mines this cell has
+  int countNeighboringMines() {
+    return this.adjacentMines;
+  }
+  
+  //reveal this cell (left click behavior), working through the cells to open
+  //with an explicit worklist so large empty regions can't overflow the stack
   void reveal() {
-    if (!this.isFlagged && !this.isRevealed) {
-      this.isRevealed = true;
+    if (this.isFlagged || this.isRevealed) {
+      return;
+    }
+    this.isRevealed = true;
+    ArrayDeque<Cell> toVisit = new ArrayDeque<Cell>();
+    toVisit.add(this);
+    
+    while (!toVisit.isEmpty()) {
+      Cell current = toVisit.remove();
       
-      //then if it has no neighboring mines, reveal all the neighbors
-      if (!this.isMine && this.countNeighboringMines() == 0) {
-        for (Cell neighbor : this.neighbors) {
-          neighbor.reveal();
+      //if it has no neighboring mines, reveal all the neighbors
+      if (!current.isMine && current.countNeighboringMines() == 0) {
+        for (Cell neighbor : current.neighbors) {
+          if (!neighbor.isFlagged && !neighbor.isRevealed) {
+            neighbor.isRevealed = true;
+            toVisit.add(neighbor);
+          }
         }
       }
     }
@@ -70,16 +100,65 @@ class Cell {
   
   //draw this cell
   WorldImage drawCell() {
+    return CellImages.draw(this.isRevealed, this.isFlagged, this.isMine,
+        this.countNeighboringMines());
+  }
+  
+}
+
+//draws the image for a single cell given its visible state.
+//a cell can only look one of 12 ways (hidden, flagged, a mine, or revealed
+//with 0 to 8 neighboring mines), so every image is built once and shared
+class CellImages {
+  static final int HIDDEN = 0;
+  static final int FLAGGED = 1;
+  static final int MINE = 2;
+  //revealed cells with n neighboring mines are REVEALED + n
+  static final int REVEALED = 3;
+  static final WorldImage[] IMAGES = CellImages.buildAll();
+  
+  //draws a cell with the given state, returning the shared image for it
+  static WorldImage draw(boolean isRevealed, boolean isFlagged, boolean isMine, int mineCount) {
+    return IMAGES[CellImages.stateOf(isRevealed, isFlagged, isMine, mineCount)];
+  }
+  
+  //which of the 12 looks a cell with the given state has
+  static int stateOf(boolean isRevealed, boolean isFlagged, boolean isMine, int mineCount) {
+    if (!isRevealed) {
+      return isFlagged ? FLAGGED : HIDDEN;
+    }
+    else if (isMine) {
+      return MINE;
+    }
+    else {
+      return REVEALED + mineCount;
+    }
+  }
+  
+  //builds the image for every look a cell can have
+  static WorldImage[] buildAll() {
+    WorldImage[] images = new WorldImage[REVEALED + 9];
+    images[HIDDEN] = CellImages.build(false, false, false, 0);
+    images[FLAGGED] = CellImages.build(false, true, false, 0);
+    images[MINE] = CellImages.build(true, false, true, 0);
+    for (int mineCount = 0; mineCount <= 8; mineCount++) {
+      images[REVEALED + mineCount] = CellImages.build(true, false, false, mineCount);
+    }
+    return images;
+  }
+  
+  //builds a new image of a cell with the given state
+  static WorldImage build(boolean isRevealed, boolean isFlagged, boolean isMine, int mineCount) {
     Color cellColor;
     WorldImage cellImage;
     
-    if (!this.isRevealed) {
+    if (!isRevealed) {
       //represents a hidden cell, blue
       cellColor = new Color(173, 216, 230);
       cellImage = new RectangleImage(20, 20, OutlineMode.SOLID, cellColor);
       
       //add flag if flagged
-      if (this.isFlagged) {
+      if (isFlagged) {
         WorldImage flag = new TriangleImage(new Posn(10, 5), new Posn(10, 15), new Posn(18, 10),
             OutlineMode.SOLID, Color.ORANGE);
         cellImage = new OverlayImage(flag, cellImage);
@@ -90,14 +169,13 @@ class Cell {
       cellColor = Color.LIGHT_GRAY;
       cellImage = new RectangleImage(20, 20, OutlineMode.SOLID, cellColor);
       
-      if (this.isMine) {
+      if (isMine) {
         //represent a mine as a red circle
         WorldImage mine = new CircleImage(8, OutlineMode.SOLID, Color.RED);
         cellImage = new OverlayImage(mine, cellImage);
       }
       else {
         //draws the number of neighboring mines
-        int mineCount = this.countNeighboringMines();
         if (mineCount > 0) {
           WorldImage number = new TextImage(Integer.toString(mineCount), 12, Color.BLACK);
           cellImage = new OverlayImage(number, cellImage);
@@ -112,29 +190,351 @@ class Cell {
   
 }
 
+//represents the state of a rectangular board, where each cell is addressed
+//by its index (row * cols + col)
+interface IBoard {
+  
+  //the number of cells on this board
+  int size();
+  
+  //is the cell at the given index a mine?
+  boolean isMine(int index);
+  
+  //is the cell at the given index revealed?
+  boolean isRevealed(int index);
+  
+  //is the cell at the given index flagged?
+  boolean isFlagged(int index);
+  
+  //the number of mines surrounding the cell at the given index
+  int adjacentMines(int index);
+  
+  //sets whether the cell at the given index is a mine
+  void setMine(int index, boolean mine);
+  
+  //sets whether the cell at the given index is revealed
+  void setRevealed(int index, boolean revealed);
+  
+  //sets whether the cell at the given index is flagged
+  void setFlagged(int index, boolean flagged);
+  
+  //writes the indices of the cells surrounding the given cell into out
+  //and returns how many were written (at most 8)
+  int neighbors(int index, int[] out);
+  
+  //returns every cell to hidden and unflagged with no mines, in place
+  void clear();
+  
+}
+
+//represents the shared layout of a rectangular board
+abstract class ABoard implements IBoard {
+  int rows;
+  int cols;
+  
+  //constructor
+  ABoard(int rows, int cols) {
+    this.rows = rows;
+    this.cols = cols;
+  }
+  
+  //the number of cells on this board
+  public int size() {
+    return this.rows * this.cols;
+  }
+  
+  //writes the indices of the cells surrounding the given cell into out
+  //and returns how many were written (at most 8)
+  public int neighbors(int index, int[] out) {
+    int row = index / this.cols;
+    int col = index % this.cols;
+    int count = 0;
+    
+    //most cells are away from the edges and have all 8
+    if (row > 0 && row < this.rows - 1 && col > 0 && col < this.cols - 1) {
+      int above = index - this.cols;
+      int below = index + this.cols;
+      out[0] = above - 1;
+      out[1] = above;
+      out[2] = above + 1;
+      out[3] = index - 1;
+      out[4] = index + 1;
+      out[5] = below - 1;
+      out[6] = below;
+      out[7] = below + 1;
+      return 8;
+    }
+    
+    for (int di = -1; di <= 1; di++) {
+      for (int dj = -1; dj <= 1; dj++) {
+        int ni = row + di;
+        int nj = col + dj;
+        
+        if ((di != 0 || dj != 0) && ni >= 0 && ni < this.rows && nj >= 0 && nj < this.cols) {
+          out[count] = ni * this.cols + nj;
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+  
+}
+
+//a board backed by the grid of Cell objects (used by the classic game)
+class CellBoard extends ABoard {
+  Cell[] cells;
+  
+  //constructor, flattening the given grid so cells can be looked up by index
+  CellBoard(ArrayList<ArrayList<Cell>> grid, int rows, int cols) {
+    super(rows, cols);
+    this.cells = new Cell[rows * cols];
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        this.cells[i * cols + j] = grid.get(i).get(j);
+      }
+    }
+  }
+  
+  //is the cell at the given index a mine?
+  public boolean isMine(int index) {
+    return this.cells[index].isMine;
+  }
+  
+  //is the cell at the given index revealed?
+  public boolean isRevealed(int index) {
+    return this.cells[index].isRevealed;
+  }
+  
+  //is the cell at the given index flagged?
+  public boolean isFlagged(int index) {
+    return this.cells[index].isFlagged;
+  }
+  
+  //the number of mines surrounding the cell at the given index
+  public int adjacentMines(int index) {
+    return this.cells[index].countNeighboringMines();
+  }
+  
+  //sets whether the cell at the given index is a mine
+  public void setMine(int index, boolean mine) {
+    this.cells[index].setMine(mine);
+  }
+  
+  //sets whether the cell at the given index is revealed
+  public void setRevealed(int index, boolean revealed) {
+    this.cells[index].isRevealed = revealed;
+  }
+  
+  //sets whether the cell at the given index is flagged
+  public void setFlagged(int index, boolean flagged) {
+    this.cells[index].isFlagged = flagged;
+  }
+  
+  //returns every cell to hidden and unflagged with no mines, keeping the
+  //Cell objects and their neighbor lists
+  public void clear() {
+    for (Cell cell : this.cells) {
+      cell.isMine = false;
+      cell.isRevealed = false;
+      cell.isFlagged = false;
+      cell.adjacentMines = 0;
+    }
+  }
+  
+}
+
+//a board that packs every cell into a single byte: the low 4 bits hold the
+//number of adjacent mines and the high bits hold the mine/revealed/flagged state,
+//so a board costs one byte per cell instead of a Cell object and its neighbor list
+class PackedBoard extends ABoard {
+  static final int COUNT_MASK = 0x0F;
+  static final int MINE = 0x10;
+  static final int REVEALED = 0x20;
+  static final int FLAGGED = 0x40;
+  
+  byte[] cells;
+  int[] neighborBuffer;
+  
+  //constructor, all cells start hidden with no mines
+  PackedBoard(int rows, int cols) {
+    super(rows, cols);
+    this.cells = new byte[rows * cols];
+    this.neighborBuffer = new int[8];
+  }
+  
+  //is the cell at the given index a mine?
+  public boolean isMine(int index) {
+    return (this.cells[index] & MINE) != 0;
+  }
+  
+  //is the cell at the given index revealed?
+  public boolean isRevealed(int index) {
+    return (this.cells[index] & REVEALED) != 0;
+  }
+  
+  //is the cell at the given index flagged?
+  public boolean isFlagged(int index) {
+    return (this.cells[index] & FLAGGED) != 0;
+  }
+  
+  //the number of mines surrounding the cell at the given index
+  public int adjacentMines(int index) {
+    return this.cells[index] & COUNT_MASK;
+  }
+  
+  //sets whether the cell at the given index is a mine, keeping the
+  //adjacency counts of its neighbors up to date
+  public void setMine(int index, boolean mine) {
+    if (this.isMine(index) == mine) {
+      return;
+    }
+    this.setBit(index, MINE, mine);
+    
+    int delta = mine ? 1 : -1;
+    int count = this.neighbors(index, this.neighborBuffer);
+    for (int k = 0; k < count; k++) {
+      int n = this.neighborBuffer[k];
+      this.cells[n] = (byte) (this.cells[n] + delta);
+    }
+  }
+  
+  //sets whether the cell at the given index is revealed
+  public void setRevealed(int index, boolean revealed) {
+    this.setBit(index, REVEALED, revealed);
+  }
+  
+  //sets whether the cell at the given index is flagged
+  public void setFlagged(int index, boolean flagged) {
+    this.setBit(index, FLAGGED, flagged);
+  }
+  
+  //returns every cell to hidden and unflagged with no mines
+  public void clear() {
+    Arrays.fill(this.cells, (byte) 0);
+  }
+  
+  //turns the given state bit of a cell on or off
+  void setBit(int index, int bit, boolean on) {
+    if (on) {
+      this.cells[index] = (byte) (this.cells[index] | bit);
+    }
+    else {
+      this.cells[index] = (byte) (this.cells[index] & ~bit);
+    }
+  }
+  
+}
+
 //represents the game logic
 class Game {
+  //the most cells a large board can have (the largest array Java will allocate)
+  static final int MAX_CELLS = Integer.MAX_VALUE - 8;
+  //when the mines are placed: right away, or on the first left click so that the
+  //clicked cell (or the clicked cell and all of its neighbors) is never a mine, or
+  //on the first left click as in PLACE_SAFE_AREA on a board that can then be
+  //cleared by deduction alone, without ever guessing (see NoGuessGenerator)
+  static final int PLACE_NOW = 0;
+  static final int PLACE_SAFE_CELL = 1;
+  static final int PLACE_SAFE_AREA = 2;
+  static final int PLACE_NO_GUESS = 3;
+  
   int rows;
   int cols;
   int numMines;
   int clickCount;
   ArrayList<ArrayList<Cell>> grid;
+  IBoard board;
+  boolean packed;
+  int placement;
+  boolean minesPlaced;
+  //scratch space for revealing, reused on every click:
+  //after a reveal, the first revealCount entries of revealQueue are the newly revealed cells
+  int[] revealQueue;
+  int revealCount;
+  int[] neighborBuffer;
+  //how many non-mine cells are still hidden, the player wins when it reaches 0
+  int hiddenSafeCells;
+  //how many cells are flagged right now
+  int flagCount;
+  //the cells that changed since the renderer last looked (see markDirty), and
+  //whether so much changed that the whole board should be redrawn instead
+  int[] dirtyCells;
+  int dirtyCount;
+  boolean fullRedraw;
+  //how hard the board is, measured by measureBoard() once the mines are placed:
+  //its 3BV (the fewest clicks that clear it, one per opening plus one per numbered
+  //cell no opening reveals), its openings (connected areas of cells with no
+  //neighboring mines), and its islands (connected groups of numbered cells no opening
+  //reveals) along with the size of the largest one
+  int bbbv;
+  int openings;
+  int islands;
+  int largestIsland;
+  //one bit for each cell measureBoard has reached, cleared at the start of each pass
+  //(an eighth of a byte per cell, next to the packed board's one byte)
+  long[] measured;
+  //builds the boards for PLACE_NO_GUESS, made on first use, and what the last board
+  //took: full layouts tried, mines moved to repair them, the time taken, and whether
+  //the board was proven to need no guesses (false if the generator gave up)
+  NoGuessGenerator generator;
+  //boards built ahead of time on another thread for resetGame, or null (see startPool)
+  BoardPool pool;
+  //records every move made, or null (see MoveJournal)
+  MoveJournal journal;
+  //what the last move changed, for front ends that don't draw from the game itself
+  StateDiff diff;
+  int generationAttempts;
+  int generationRepairs;
+  long generationNanos;
+  boolean noGuess;
   boolean gameOver;
   boolean gameWon;
-  Random rand;
+  //where the mines come from. it knows its own state, so saving the game never has
+  //to draw from it (see SeededRandom)
+  SeededRandom rand;
   
   //constructor using a seeded random for proper testing
   Game(int rows, int cols, int numMines, Random rand) {
-    //constraints for creating a grid:
-    //the smallest implementation is a 9 by 9
-    //the largest implementation is a 30 by 30
-    //the mine count can't be negative or greater than the grid
-    if (rows < 9 || rows > 30) {
-      throw new IllegalArgumentException("rows must be between 9 and 30 (inclusive)");
+    this(rows, cols, numMines, rand, false);
+  }
+  
+  //constructor that can choose the large-board mode, which stores the game in a
+  //PackedBoard instead of a grid of Cell objects (grid stays null) and accepts
+  //boards of any size. the classic game keeps the 9 to 30 limits for the UI
+  Game(int rows, int cols, int numMines, Random rand, boolean packed) {
+    this(rows, cols, numMines, rand, packed, PLACE_NOW);
+  }
+  
+  //constructor that also chooses when the mines are placed (one of the PLACE_ modes).
+  //when placement waits for the first click, building the game costs no more than
+  //allocating the empty board. a random that isn't a SeededRandom is drawn from
+  //once, to seed the game's own
+  Game(int rows, int cols, int numMines, Random rand, boolean packed, int placement) {
+    if (packed) {
+      //a large board only has to fit in an array
+      if (rows < 1 || cols < 1) {
+        throw new IllegalArgumentException("rows and columns must be at least 1");
+      }
+      if ((long) rows * cols > MAX_CELLS) {
+        throw new IllegalArgumentException("a board can have at most " + MAX_CELLS + " cells");
+      }
+    }
+    else {
+      //constraints for creating a grid:
+      //the smallest implementation is a 9 by 9
+      //the largest implementation is a 30 by 30
+      if (rows < 9 || rows > 30) {
+        throw new IllegalArgumentException("rows must be between 9 and 30 (inclusive)");
+      }
+      if (cols < 9 || cols > 30) {
+        throw new IllegalArgumentException("columns must be between 9 and 30 (inclusive)");
+      }
     }
-    if (cols < 9 || cols > 30) {
-      throw new IllegalArgumentException("columns must be between 9 and 30 (inclusive)");
+    if (placement < PLACE_NOW || placement > PLACE_NO_GUESS) {
+      throw new IllegalArgumentException("unknown placement mode " + placement);
     }
+    //the mine count can't be negative or greater than the grid
     if (numMines < 0 || numMines >= rows * cols) {
       throw new IllegalArgumentException("number of mines must be between 0 and " + 
     (rows * cols - 1));
@@ -144,12 +544,14 @@ class Game {
     this.cols = cols;
     this.numMines = numMines;
     this.clickCount = 0;
-    this.rand = rand;
+    this.rand = SeededRandom.from(rand);
+    this.packed = packed;
+    this.placement = placement;
     this.gameOver = false;
     this.gameWon = false;
-    this.initializeGrid();
-    this.linkNeighbors();
-    this.placeMines();
+    this.diff = new StateDiff(this);
+    this.initializeBoard();
+    this.startBoard();
   }
   
   //convenience constructor for actual gameplay (using an unseeded random)
@@ -162,6 +564,64 @@ class Game {
     this(16, 30, 99);
   }
   
+  //initializes an empty board of the chosen representation
+  void initializeBoard() {
+    if (this.packed) {
+      this.grid = null;
+      this.board = new PackedBoard(this.rows, this.cols);
+    }
+    else {
+      this.initializeGrid();
+      this.linkNeighbors();
+    }
+    
+    if (this.revealQueue == null || this.revealQueue.length != this.board.size()) {
+      this.revealQueue = new int[this.board.size()];
+      this.neighborBuffer = new int[8];
+      this.dirtyCells = new int[Math.min(this.board.size(), 4096)];
+    }
+    this.clearCounters();
+  }
+  
+  //empties the board for a new game of the same size in place, keeping its cells
+  //and how they are linked, so a reset allocates nothing
+  void clearBoard() {
+    this.board.clear();
+    this.clearCounters();
+  }
+  
+  //starts over the counts, measurements and change tracking that belong to one board
+  void clearCounters() {
+    this.revealCount = 0;
+    this.flagCount = 0;
+    this.dirtyCount = 0;
+    this.fullRedraw = true;
+    this.bbbv = 0;
+    this.openings = 0;
+    this.islands = 0;
+    this.largestIsland = 0;
+  }
+  
+  //records that the cell at the given index looks different now, in the move's diff
+  //and for the renderer. if more cells change than the renderer has room to record,
+  //the whole board is marked for redrawing
+  void markDirty(int index) {
+    this.diff.add(index);
+    if (this.dirtyCount < this.dirtyCells.length) {
+      this.dirtyCells[this.dirtyCount] = index;
+      this.dirtyCount++;
+    }
+    else {
+      this.fullRedraw = true;
+    }
+  }
+  
+  //forgets the changed cells once the renderer has drawn them
+  void clearDirty() {
+    this.dirtyCount = 0;
+    this.fullRedraw = false;
+  }
+  
   //initializes the grid with empty cells
   void initializeGrid() {
     this.grid = new ArrayList<ArrayList<Cell>>();
@@ -172,6 +632,7 @@ class Game {
       }
       this.grid.add(row);
     }
+    this.board = new CellBoard(this.grid, this.rows, this.cols);
   }
   
   //links each cell to its neighbors
@@ -199,181 +660,839 @@ class Game {
     }    
   }
   
-  //randomly places the mines on the grid
+  //places the mines on the fresh board now, or leaves the board empty until the
+  //first left click if the placement mode asks for a safe first click
+  void startBoard() {
+    if (this.placement == PLACE_NOW) {
+      this.placeMines();
+    }
+    else {
+      this.minesPlaced = false;
+      this.hiddenSafeCells = this.board.size() - this.numMines;
+    }
+  }
+  
+  //randomly places the mines anywhere on the grid
   void placeMines() {
-    int minesPlaced = 0;
+    this.placeMines(-1);
+  }
+  
+  //randomly places the mines on the grid, keeping the cell at safeIndex clear
+  //(and its neighbors too in PLACE_SAFE_AREA and PLACE_NO_GUESS, if there is room for the mines
+  //elsewhere), or anywhere when safeIndex is -1.
+  //uses a partial Fisher-Yates shuffle of the allowed cell indices, so it never
+  //retries a cell and takes the same time at any density. when more than half the
+  //allowed cells get mines it picks the safe cells instead and mines the rest, so it
+  //never draws more than half of them. mines update the adjacency counts as they go.
+  //(the reveal queue is free before the first reveal, so it holds the shuffle)
+  void placeMines(int safeIndex) {
+    int size = this.board.size();
+    int[] order = this.revealQueue;
+    int safeRow = safeIndex < 0 ? -2 : safeIndex / this.cols;
+    int safeCol = safeIndex < 0 ? -2 : safeIndex % this.cols;
+    int reach = 0;
+    if (this.placement >= PLACE_SAFE_AREA && safeIndex >= 0
+        && this.numMines <= size - 1 - this.board.neighbors(safeIndex, this.neighborBuffer)) {
+      reach = 1;
+    }
     
-    while (minesPlaced < this.numMines) {
-      int randomRow = this.rand.nextInt(this.rows);
-      int randomCol = this.rand.nextInt(this.cols);
-        
-      Cell cell = this.grid.get(randomRow).get(randomCol);
-        
-      //only place mine if cell doesn't already have one
-      if (!cell.isMine) {
-        cell.isMine = true;
-        minesPlaced++;
+    //list every cell the mines are allowed in
+    int allowed = 0;
+    for (int i = 0; i < this.rows; i++) {
+      boolean safeRowNear = Math.abs(i - safeRow) <= reach;
+      for (int j = 0; j < this.cols; j++) {
+        if (!safeRowNear || Math.abs(j - safeCol) > reach) {
+          order[allowed] = i * this.cols + j;
+          allowed++;
+        }
       }
     }
+    
+    boolean pickSafe = this.numMines > allowed / 2;
+    int picks = pickSafe ? allowed - this.numMines : this.numMines;
+    //after this, the first picks entries of order are a random sample of the allowed cells
+    for (int k = 0; k < picks; k++) {
+      int swap = k + this.rand.nextInt(allowed - k);
+      int chosen = order[swap];
+      order[swap] = order[k];
+      order[k] = chosen;
+    }
+    
+    //the sample is either the mines or the safe cells
+    int from = pickSafe ? picks : 0;
+    int to = pickSafe ? allowed : picks;
+    for (int k = from; k < to; k++) {
+      this.board.setMine(order[k], true);
+    }
+    
+    //the board is fresh, so every safe cell is hidden
+    this.minesPlaced = true;
+    this.hiddenSafeCells = size - this.numMines;
+    this.measureBoard();
   }
   
-  //handles left mouse click
-  void leftClick(int row, int col) {
-    if (!this.gameOver && row >= 0 && row < this.rows && col >= 0 && col < this.cols) {
-      this.clickCount++;
-      Cell clickedCell = this.grid.get(row).get(col);
-        
-      if (clickedCell.isMine && !clickedCell.isFlagged) {
-        //game over, all the mines reveal
-        this.gameOver = true;
-        this.revealAllMines();
-      } 
-      else {
-        clickedCell.reveal();
-        this.checkWinCondition();
-      }
-    }
+  //moves a mine from one cell to another, updating the adjacency counts
+  //around both cells instead of recounting the board
+  //(the board's measurements are not updated, call measureBoard after moving mines)
+  void moveMine(int from, int to) {
+    this.board.setMine(from, false);
+    this.board.setMine(to, true);
   }
   
-  //handles right mouse click
-  void rightClick(int row, int col) {
-    if (!this.gameOver && row >= 0 && row < this.rows && col >= 0 && col < this.cols) {
-      Cell clickedCell = this.grid.get(row).get(col);
-      clickedCell.toggleFlag();
+  //places the mines so that the board can be cleared from the cell at safeIndex
+  //by deduction alone, and records what it took
+  void placeNoGuess(int safeIndex) {
+    if (this.generator == null) {
+      this.generator = new NoGuessGenerator(this);
     }
+    long start = System.nanoTime();
+    this.noGuess = this.generator.generate(safeIndex);
+    this.generationAttempts = this.generator.attempts;
+    this.generationRepairs = this.generator.repairs;
+    this.generationNanos = System.nanoTime() - start;
   }
   
-  //reveals all the mines when the game is over
-  void revealAllMines() {
-    for (int i = 0; i < this.rows; i++) {
-      for (int j = 0; j < this.cols; j++) {
-        Cell cell = this.grid.get(i).get(j);
-        if (cell.isMine) {
-          cell.isRevealed = true;
+  //measures the board's 3BV, openings and islands in one pass over the cells.
+  //each opening is flooded once from its first cell, marking its cells and the
+  //numbered cells around it, and then each group of numbered cells left unmarked is
+  //flooded as an island, so every safe cell is queued at most once.
+  //(runs right after the mines are placed, while the reveal queue is free)
+  void measureBoard() {
+    int size = this.board.size();
+    if (this.measured == null || this.measured.length != (size + 63) / 64) {
+      this.measured = new long[(size + 63) / 64];
+    }
+    else {
+      Arrays.fill(this.measured, 0);
+    }
+    int[] queue = this.revealQueue;
+    this.openings = 0;
+    this.islands = 0;
+    this.largestIsland = 0;
+    int unopened = 0;
+    
+    for (int start = 0; start < size; start++) {
+      if (this.isMeasured(start) || this.board.isMine(start)
+          || this.board.adjacentMines(start) != 0) {
+        continue;
+      }
+      this.openings++;
+      this.markMeasured(start);
+      queue[0] = start;
+      int tail = 1;
+      for (int head = 0; head < tail; head++) {
+        int current = queue[head];
+        //the numbered cells around an opening are revealed with it, but stop the flood
+        if (this.board.adjacentMines(current) != 0) {
+          continue;
+        }
+        int count = this.board.neighbors(current, this.neighborBuffer);
+        for (int k = 0; k < count; k++) {
+          int neighbor = this.neighborBuffer[k];
+          if (!this.isMeasured(neighbor)) {
+            this.markMeasured(neighbor);
+            queue[tail] = neighbor;
+            tail++;
+          }
         }
       }
     }
-  } 
-  
-  //checks if the player won
-  void checkWinCondition() {
-    for (int i = 0; i < this.rows; i++) {
-      for (int j = 0; j < this.cols; j++) {
-        Cell cell = this.grid.get(i).get(j);
-        //if any non-mine cell is not revealed, the game is not won
-        if (!cell.isMine && !cell.isRevealed) {
-          return;
+    
+    //every safe cell left is numbered and takes a click of its own
+    for (int start = 0; start < size; start++) {
+      if (this.isMeasured(start) || this.board.isMine(start)) {
+        continue;
+      }
+      this.islands++;
+      this.markMeasured(start);
+      queue[0] = start;
+      int tail = 1;
+      for (int head = 0; head < tail; head++) {
+        int count = this.board.neighbors(queue[head], this.neighborBuffer);
+        for (int k = 0; k < count; k++) {
+          int neighbor = this.neighborBuffer[k];
+          if (!this.isMeasured(neighbor) && !this.board.isMine(neighbor)) {
+            this.markMeasured(neighbor);
+            queue[tail] = neighbor;
+            tail++;
+          }
         }
       }
+      unopened += tail;
+      this.largestIsland = Math.max(this.largestIsland, tail);
     }
-    //all non-mine cells are revealed
-    this.gameWon = true;
-    this.gameOver = true;
+    
+    this.bbbv = this.openings + unopened;
   }
   
-  //conditions for restarting the game
-  void resetGame() {
-    this.gameOver = false;
-    this.gameWon = false;
-    this.clickCount = 0;
-    this.initializeGrid();
-    this.linkNeighbors();
-    this.placeMines();
+  //has measureBoard reached the cell at the given index in this pass?
+  boolean isMeasured(int index) {
+    return (this.measured[index >> 6] & (1L << index)) != 0;
   }
   
-}
-
-//represents the World for actually displaying the game
-class MineWorld extends World {
-  Game game;
-  int cellSize = 20;
-  
-  //constructor
-  MineWorld(Game game) {
-    this.game = game;
+  //marks the cell at the given index as reached by measureBoard
+  void markMeasured(int index) {
+    this.measured[index >> 6] |= 1L << index;
   }
   
-  //default constructor
-  MineWorld() {
-    this.game = new Game();
+  //the board's 3BV over the clicks used so far: 1 for a perfectly played game,
+  //less when clicks were wasted (0 before the first click)
+  double efficiency() {
+    return this.clickCount == 0 ? 0 : (double) this.bbbv / this.clickCount;
   }
   
-  //constructor with custom parameters
-  MineWorld(int rows, int cols, int numMines) {
-    this.game = new Game(rows, cols, numMines);
+  //handles left mouse click, returns what it changed (the game's diff, which the
+  //next move reuses)
+  StateDiff leftClick(int row, int col) {
+    this.diff.begin();
+    if (row >= 0 && row < this.rows && col >= 0 && col < this.cols) {
+      this.leftMove(row * this.cols + col);
+    }
+    return this.diff;
   }
   
-  //draws the worldScene
-  public WorldScene makeScene() {
-    int headerHeight = 40;
-    int sceneWidth = this.game.cols * this.cellSize;
-    int sceneHeight = this.game.rows * this.cellSize + headerHeight;
-    WorldScene scene = new WorldScene(sceneWidth, sceneHeight);
-    
-    //draw the background of the header
-    WorldImage headerBackground = new RectangleImage(sceneWidth, headerHeight, 
-        OutlineMode.SOLID, Color.LIGHT_GRAY);
-    scene.placeImageXY(headerBackground, sceneWidth / 2, headerHeight / 2);
-    
-    //draws each cell
-    for (int i = 0; i < this.game.rows; i++) {
-      for (int j = 0; j < this.game.cols; j++) {
-        Cell cell = this.game.grid.get(i).get(j);
-        WorldImage cellImage = cell.drawCell();
-        
-        int x = j * this.cellSize + this.cellSize / 2;
-        int y = i * this.cellSize + this.cellSize / 2 + headerHeight;
-        
-        scene.placeImageXY(cellImage, x, y);
-      }
-    }
-    
-    //calculate and display mines remaining
-    int flaggedCells = 0;
-    for (int i = 0; i < this.game.rows; i++) {
-      for (int j = 0; j < this.game.cols; j++) {
-        if (this.game.grid.get(i).get(j).isFlagged) {
-          flaggedCells++;
+  //left clicks the cell at the given index, which must be on the board, adding
+  //what it changes to the diff already begun
+  void leftMove(int index) {
+    if (!this.gameOver) {
+      this.clickCount++;
+      
+      //the first click that can reveal something decides where the mines go
+      if (!this.minesPlaced && !this.board.isFlagged(index)) {
+        if (this.placement == PLACE_NO_GUESS) {
+          this.placeNoGuess(index);
+        }
+        else {
+          this.placeMines(index);
         }
       }
-    }
-    
-    int minesRemaining = this.game.numMines - flaggedCells;
-    //draws the mines remaining counter
-    WorldImage mineCounter = new TextImage("Mines remaining: " + minesRemaining, 10, Color.BLACK);
-    scene.placeImageXY(mineCounter, 55, headerHeight / 2);
-    
-    //draw click counter
-    WorldImage clickCounter = new TextImage("Clicks: " + this.game.clickCount, 10, Color.BLACK);
-    scene.placeImageXY(clickCounter, sceneWidth - 35, headerHeight / 2);
-    
-    //draws end of game message
-    if (this.game.gameOver) {
-      String message;
-      Color messageColor;
-      
-      if (this.game.gameWon) {
-        message = "You Win!";
-        messageColor = Color.GREEN;
+        
+      if (this.board.isMine(index) && !this.board.isFlagged(index)) {
+        //game over, all the mines reveal
+        this.gameOver = true;
+        this.revealAllMines();
       } 
       else {
-        message = "Game Over!";
-        messageColor = Color.RED;
+        this.reveal(index);
+        this.checkWin();
       }
       
-      WorldImage gameOverText = new TextImage(message, 24, messageColor);
-      scene.placeImageXY(gameOverText, sceneWidth / 2, sceneHeight / 2);
-      
-      WorldImage restartText = new TextImage("press 'R' to restart", 14, Color.RED);
-      scene.placeImageXY(restartText, sceneWidth / 2, sceneHeight / 2 + 20);
+      if (this.journal != null) {
+        this.journal.record(this, MoveJournal.LEFT, index);
+      }
     }
-    return scene;
   }
   
-  //handles mouse clicks
-  public void onMouseClicked(Posn pos, String buttonName) {
-    int headerHeight = 40;
-    int adjustedY = pos.y - headerHeight;
+  //reveals the cell at the given index, and if it has no neighboring mines,
+  //keeps revealing outward the same way Cell.reveal() does.
+  //cells are marked revealed as they are queued, so each one is visited at most once
+  //and the queue never needs more room than the board has cells.
+  //returns how many cells were newly revealed (they are the front of revealQueue)
+  int reveal(int index) {
+    int tail = 0;
+    
+    if (!this.board.isFlagged(index) && !this.board.isRevealed(index)) {
+      this.board.setRevealed(index, true);
+      this.revealQueue[tail] = index;
+      tail++;
+    }
+    return this.revealQueued(tail);
+  }
+  
+  //reveals outward from the first tail cells of revealQueue, which are already
+  //marked revealed, in one flood fill however many cells it starts from.
+  //returns how many cells were newly revealed in all
+  int revealQueued(int tail) {
+    int head = 0;
+    
+    while (head < tail) {
+      int current = this.revealQueue[head];
+      head++;
+      this.markDirty(current);
+      
+      if (!this.board.isMine(current)) {
+        this.hiddenSafeCells--;
+      }
+      
+      if (!this.board.isMine(current) && this.board.adjacentMines(current) == 0) {
+        int count = this.board.neighbors(current, this.neighborBuffer);
+        for (int k = 0; k < count; k++) {
+          int neighbor = this.neighborBuffer[k];
+          if (!this.board.isFlagged(neighbor) && !this.board.isRevealed(neighbor)) {
+            this.board.setRevealed(neighbor, true);
+            this.revealQueue[tail] = neighbor;
+            tail++;
+          }
+        }
+      }
+    }
+    
+    this.revealCount = tail;
+    return tail;
+  }
+  
+  //handles right mouse click, returns what it changed (the game's diff, which the
+  //next move reuses)
+  StateDiff rightClick(int row, int col) {
+    this.diff.begin();
+    if (row >= 0 && row < this.rows && col >= 0 && col < this.cols) {
+      this.rightMove(row * this.cols + col);
+    }
+    return this.diff;
+  }
+  
+  //right clicks the cell at the given index, which must be on the board, adding
+  //what it changes to the diff already begun
+  void rightMove(int index) {
+    if (!this.gameOver) {
+      //same as Cell.toggleFlag(), only hidden cells can be flagged
+      if (!this.board.isRevealed(index)) {
+        boolean flagged = !this.board.isFlagged(index);
+        this.board.setFlagged(index, flagged);
+        this.flagCount += flagged ? 1 : -1;
+        this.markDirty(index);
+        if (this.journal != null) {
+          this.journal.record(this, MoveJournal.RIGHT, index);
+        }
+      }
+    }
+  }
+  
+  //handles a chord (middle click) on a revealed number: when as many of its
+  //neighbors are flagged as it has mines around it, every other hidden neighbor is
+  //revealed at once. returns what it changed (the game's diff)
+  StateDiff chord(int row, int col) {
+    this.diff.begin();
+    if (row >= 0 && row < this.rows && col >= 0 && col < this.cols) {
+      this.chordMove(row * this.cols + col);
+    }
+    return this.diff;
+  }
+  
+  //chords the cell at the given index, which must be on the board, adding what it
+  //changes to the diff already begun. a chord on anything but a revealed number
+  //whose flags add up does nothing and isn't counted as a click. when they add up,
+  //every unflagged hidden neighbor is queued and the openings among them are all
+  //flooded in one pass, with one check for a win at the end. a wrong flag means a
+  //neighbor is a mine, and the game is lost as if it had been left clicked
+  void chordMove(int index) {
+    if (this.gameOver || !this.board.isRevealed(index) || this.board.isMine(index)) {
+      return;
+    }
+    int mines = this.board.adjacentMines(index);
+    int count = this.board.neighbors(index, this.neighborBuffer);
+    int flagged = 0;
+    for (int k = 0; k < count; k++) {
+      if (this.board.isFlagged(this.neighborBuffer[k])) {
+        flagged++;
+      }
+    }
+    if (mines == 0 || flagged != mines) {
+      return;
+    }
+    
+    this.clickCount++;
+    boolean hitMine = false;
+    int tail = 0;
+    for (int k = 0; k < count; k++) {
+      int neighbor = this.neighborBuffer[k];
+      if (!this.board.isFlagged(neighbor) && !this.board.isRevealed(neighbor)) {
+        hitMine |= this.board.isMine(neighbor);
+        this.board.setRevealed(neighbor, true);
+        this.revealQueue[tail] = neighbor;
+        tail++;
+      }
+    }
+    if (hitMine) {
+      this.gameOver = true;
+      this.revealAllMines();
+      this.markQueued(tail);
+    }
+    else {
+      this.revealQueued(tail);
+      this.checkWin();
+    }
+    
+    if (this.journal != null) {
+      this.journal.record(this, MoveJournal.CHORD, index);
+    }
+  }
+  
+  //records the first tail cells of revealQueue as changed, without flooding from them
+  void markQueued(int tail) {
+    for (int k = 0; k < tail; k++) {
+      int queued = this.revealQueue[k];
+      this.markDirty(queued);
+      if (!this.board.isMine(queued)) {
+        this.hiddenSafeCells--;
+      }
+    }
+    this.revealCount = tail;
+  }
+  
+  //a move for play(): the cell's index shifted left 2, with the kind of move
+  //(MoveJournal.LEFT, RIGHT, RESET or CHORD) in the low 2 bits, as MoveJournal
+  //writes them. only boards of up to 2^30 cells have room for their moves in an int
+  int encodeMove(int kind, int row, int col) {
+    if (row < 0 || row >= this.rows || col < 0 || col >= this.cols) {
+      throw new IllegalArgumentException("the move is not on the board");
+    }
+    if (this.board.size() > 1 << 30) {
+      throw new IllegalArgumentException("the board is too big for encoded moves");
+    }
+    return (row * this.cols + col) << 2 | kind;
+  }
+  
+  //makes every move (see encodeMove) in moves
+  int play(int[] moves) {
+    return this.play(moves, 0, moves.length);
+  }
+  
+  //makes the moves from moves[from] up to (not including) moves[to] in order, as
+  //one left click, right click, reset or chord each, but decoded straight to cell
+  //indices and gathered into a single diff, which starts when the batch does. stops
+  //early once a left click or chord ends the game (on a mine, or by winning), so the
+  //rest of the batch is never looked at. moves off the board are ignored, as clicks
+  //there are.
+  //returns how many moves were made
+  int play(int[] moves, int from, int to) {
+    this.diff.begin();
+    int size = this.board.size();
+    int k = from;
+    while (k < to) {
+      int move = moves[k];
+      k++;
+      int index = move >>> 2;
+      int kind = move & 3;
+      if (kind == MoveJournal.RESET) {
+        //starting over forgets the cells changed before it, as its own diff does
+        this.resetGame();
+        size = this.board.size();
+      }
+      else if (index < size) {
+        if (kind == MoveJournal.LEFT || kind == MoveJournal.CHORD) {
+          if (kind == MoveJournal.LEFT) {
+            this.leftMove(index);
+          }
+          else {
+            this.chordMove(index);
+          }
+          if (this.gameOver) {
+            break;
+          }
+        }
+        else {
+          this.rightMove(index);
+        }
+      }
+    }
+    return k - from;
+  }
+  
+  //the number of mines left for the player to find: the mine count minus the flags
+  //placed so far (negative if the player has placed more flags than there are mines)
+  int minesRemaining() {
+    return this.numMines - this.flagCount;
+  }
+  
+  //reveals all the mines when the game is over
+  void revealAllMines() {
+    for (int index = 0; index < this.board.size(); index++) {
+      if (this.board.isMine(index) && !this.board.isRevealed(index)) {
+        this.board.setRevealed(index, true);
+        this.markDirty(index);
+      }
+    }
+  } 
+  
+  //checks if the player won, in constant time using the running count of
+  //hidden safe cells that reveal() keeps
+  void checkWin() {
+    if (this.hiddenSafeCells == 0) {
+      //all non-mine cells are revealed
+      this.gameWon = true;
+      this.gameOver = true;
+    }
+  }
+  
+  //recounts the hidden safe cells over the whole board and then checks if the
+  //player won (only needed when cells were changed without going through Game)
+  void checkWinCondition() {
+    int hidden = 0;
+    for (int index = 0; index < this.board.size(); index++) {
+      //count every non-mine cell that is not revealed
+      if (!this.board.isMine(index) && !this.board.isRevealed(index)) {
+        hidden++;
+      }
+    }
+    this.hiddenSafeCells = hidden;
+    this.checkWin();
+  }
+  
+  //conditions for restarting the game. with a pool running, a board built ahead
+  //of time is swapped in if one is ready, otherwise the board is cleared in place.
+  //every board starts the random from a new seed drawn from it, so saving a game
+  //only has to count the draws made on its own board.
+  //returns the diff of starting over (every cell hidden)
+  StateDiff resetGame() {
+    this.diff.begin();
+    this.diff.reset = true;
+    this.gameOver = false;
+    this.gameWon = false;
+    this.clickCount = 0;
+    this.rand.setSeed(this.rand.nextLong());
+    if (this.pool == null || !this.pool.takeInto(this)) {
+      this.clearBoard();
+      this.startBoard();
+    }
+    if (this.journal != null) {
+      this.journal.record(this, MoveJournal.RESET, 0);
+    }
+    return this.diff;
+  }
+  
+  //starts building boards for resetGame on a background thread, keeping up to
+  //capacity of them ready (the first board is still the one built already)
+  void startPool(int capacity) {
+    this.stopPool();
+    this.pool = new BoardPool(this, capacity);
+    this.pool.start();
+  }
+  
+  //stops the background thread, so resetGame builds its boards itself again
+  void stopPool() {
+    if (this.pool != null) {
+      this.pool.stop();
+      this.pool = null;
+    }
+  }
+  
+  //switches to a board built ahead of time by a game with the same settings
+  void useBoard(PreparedBoard prepared) {
+    this.board = prepared.board;
+    this.grid = prepared.grid;
+    this.minesPlaced = prepared.minesPlaced;
+    this.hiddenSafeCells = this.board.size() - this.numMines;
+    this.clearCounters();
+    this.bbbv = prepared.bbbv;
+    this.openings = prepared.openings;
+    this.islands = prepared.islands;
+    this.largestIsland = prepared.largestIsland;
+  }
+  
+}
+
+//a Random that keeps the seed it was last given and how many numbers it has drawn
+//since, which between them are its whole state: a game's random can be saved and
+//put back exactly (see GameSnapshot) without drawing from it
+class SeededRandom extends Random {
+  private static final long serialVersionUID = 1L;
+  //the generator Random steps its 48 bits of state with: state * MULTIPLIER + ADDEND
+  static final long MULTIPLIER = 0x5DEECE66DL;
+  static final long ADDEND = 0xBL;
+  static final long MASK = (1L << 48) - 1;
+  long seed;
+  long draws;
+  
+  //constructor
+  SeededRandom(long seed) {
+    super(seed);
+  }
+  
+  //the given random if it already keeps its state, otherwise a new one seeded from it
+  static SeededRandom from(Random rand) {
+    if (rand instanceof SeededRandom) {
+      return (SeededRandom) rand;
+    }
+    return new SeededRandom(rand.nextLong());
+  }
+  
+  //starts over from the given seed
+  public synchronized void setSeed(long seed) {
+    super.setSeed(seed);
+    this.seed = seed;
+    this.draws = 0;
+  }
+  
+  //puts the random in the state it was in after drawing the given number of times
+  //from the given seed. the generator's step is composed with itself by squaring,
+  //so any number of draws takes at most 64 steps (a snapshot can't stall a load
+  //with a huge count)
+  void restore(long seed, long draws) {
+    if (draws < 0) {
+      throw new IllegalArgumentException("a random can't have drawn less than 0 times");
+    }
+    long multiplier = 1;
+    long addend = 0;
+    long stepMultiplier = MULTIPLIER;
+    long stepAddend = ADDEND;
+    for (long n = draws; n > 0; n >>>= 1) {
+      if ((n & 1) != 0) {
+        multiplier *= stepMultiplier;
+        addend = addend * stepMultiplier + stepAddend;
+      }
+      stepAddend *= stepMultiplier + 1;
+      stepMultiplier *= stepMultiplier;
+    }
+    long state = (((seed ^ MULTIPLIER) & MASK) * multiplier + addend) & MASK;
+    //Random scrambles a seed it is given the same way, so this sets the state itself
+    super.setSeed(state ^ MULTIPLIER);
+    this.seed = seed;
+    this.draws = draws;
+  }
+  
+  //a seed for another random, mixed from this one's state without drawing from it
+  //(with the SplitMix64 finalizer, so nearby states give unrelated seeds)
+  long fork() {
+    long z = this.seed + (this.draws + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+  
+  //the next random bits, counting the draw
+  protected int next(int bits) {
+    this.draws++;
+    return super.next(bits);
+  }
+  
+}
+
+//builds boards for a Game on a background thread, so resetGame only has to swap a
+//ready board in. the thread builds new boards on a private game with the same
+//settings (not with resetGame, which would reuse the board it handed over) and
+//hands each board it makes over through a bounded queue: when the queue is full
+//the thread waits until a board is taken, so it never runs more than capacity
+//boards ahead. boards whose mines wait for the first click come out
+//empty (that placement can't happen until the click), but still save rebuilding
+//and linking the board
+class BoardPool implements Runnable {
+  ArrayBlockingQueue<PreparedBoard> ready;
+  //the private game the boards are built on, only touched by the pool's thread
+  Game builder;
+  Thread thread;
+  //how many resets found a board ready, and how many had to build their own
+  //(only touched by the thread that resets the game)
+  long hits;
+  long misses;
+  
+  //constructor, with the builder's random seeded from the state of the game's.
+  //the game's random is never drawn from, so starting a pool doesn't change the
+  //mines the game places itself (and a MoveJournal replaying it still agrees)
+  BoardPool(Game game, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("a pool must hold at least 1 board");
+    }
+    this.ready = new ArrayBlockingQueue<PreparedBoard>(capacity);
+    this.builder = new Game(game.rows, game.cols, game.numMines,
+        new SeededRandom(game.rand.fork()), game.packed, game.placement);
+  }
+  
+  //starts the background thread
+  void start() {
+    this.thread = new Thread(this, "board pool");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+  
+  //stops the background thread and drops the boards it made
+  void stop() {
+    this.thread.interrupt();
+    this.ready.clear();
+  }
+  
+  //builds boards until stopped, waiting whenever the queue is full
+  public void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        this.builder.initializeBoard();
+        this.builder.startBoard();
+        this.ready.put(new PreparedBoard(this.builder));
+      }
+    }
+    catch (InterruptedException e) {
+      //stopped while waiting for room
+    }
+  }
+  
+  //swaps a ready board into the game, returns false if none was ready
+  boolean takeInto(Game game) {
+    PreparedBoard prepared = this.ready.poll();
+    if (prepared == null) {
+      this.misses++;
+      return false;
+    }
+    this.hits++;
+    game.useBoard(prepared);
+    return true;
+  }
+  
+  //the share of resets that found a board ready
+  double hitRate() {
+    return this.hits + this.misses == 0 ? 0 : (double) this.hits / (this.hits + this.misses);
+  }
+  
+}
+
+//a board built ahead of time: the board itself, and what its game knew about it
+class PreparedBoard {
+  IBoard board;
+  ArrayList<ArrayList<Cell>> grid;
+  boolean minesPlaced;
+  int bbbv;
+  int openings;
+  int islands;
+  int largestIsland;
+  
+  //constructor, taking the board a game was just given
+  //(the game must build a new board next, with initializeBoard)
+  PreparedBoard(Game game) {
+    this.board = game.board;
+    this.grid = game.grid;
+    this.minesPlaced = game.minesPlaced;
+    this.bbbv = game.bbbv;
+    this.openings = game.openings;
+    this.islands = game.islands;
+    this.largestIsland = game.largestIsland;
+  }
+  
+}
+
+//represents the World for actually displaying the game
+class MineWorld extends World {
+  //how many boards the game's pool keeps ready once the world is started, so
+  //pressing 'r' never has to wait for a board to be built on the UI thread
+  static final int POOL_BOARDS = 2;
+  Game game;
+  int cellSize = 20;
+  int headerHeight = 40;
+  //the scene drawn last frame and what it was drawn from
+  WorldScene scene;
+  IBoard drawnBoard;
+  boolean drawnGameOver;
+  boolean drawnGameWon;
+  int drawnClicks;
+  int drawnMinesRemaining;
+  //how many cell images have been drawn over the scene since it was rebuilt
+  int stackedImages;
+  
+  //constructor
+  MineWorld(Game game) {
+    this.game = game;
+  }
+  
+  //default constructor
+  MineWorld() {
+    this(new Game());
+  }
+  
+  //constructor with custom parameters
+  MineWorld(int rows, int cols, int numMines) {
+    this(new Game(rows, cols, numMines));
+  }
+  
+  //draws the worldScene. the scene from the last frame is kept and only the cells
+  //the game reports as changed are drawn over it, so an idle frame draws nothing
+  //and a click costs as much as the cells it changed. the whole scene is rebuilt
+  //when the game asks for it (new board), when the game ends or restarts, or once
+  //enough images have piled up on the kept scene
+  public WorldScene makeScene() {
+    if (this.scene == null || this.game.fullRedraw || this.drawnBoard != this.game.board
+        || this.drawnGameOver != this.game.gameOver
+        || this.drawnGameWon != this.game.gameWon
+        || this.stackedImages + this.game.dirtyCount > this.game.board.size()) {
+      this.drawFullScene();
+    }
+    else {
+      for (int k = 0; k < this.game.dirtyCount; k++) {
+        this.drawCellAt(this.game.dirtyCells[k]);
+      }
+      this.stackedImages += this.game.dirtyCount;
+      
+      if (this.drawnClicks != this.game.clickCount
+          || this.drawnMinesRemaining != this.game.minesRemaining()) {
+        this.drawHeader();
+      }
+    }
+    this.game.clearDirty();
+    return this.scene;
+  }
+  
+  //rebuilds the whole scene from scratch
+  void drawFullScene() {
+    int sceneWidth = this.game.cols * this.cellSize;
+    int sceneHeight = this.game.rows * this.cellSize + this.headerHeight;
+    this.scene = new WorldScene(sceneWidth, sceneHeight);
+    this.drawnBoard = this.game.board;
+    this.drawnGameOver = this.game.gameOver;
+    this.drawnGameWon = this.game.gameWon;
+    this.stackedImages = 0;
+    
+    //draws each cell
+    for (int index = 0; index < this.game.board.size(); index++) {
+      this.drawCellAt(index);
+    }
+    
+    this.drawHeader();
+    
+    //draws end of game message
+    if (this.game.gameOver) {
+      String message;
+      Color messageColor;
+      
+      if (this.game.gameWon) {
+        message = "You Win!";
+        messageColor = Color.GREEN;
+      } 
+      else {
+        message = "Game Over!";
+        messageColor = Color.RED;
+      }
+      
+      WorldImage gameOverText = new TextImage(message, 24, messageColor);
+      this.scene.placeImageXY(gameOverText, sceneWidth / 2, sceneHeight / 2);
+      
+      WorldImage restartText = new TextImage("press 'R' to restart", 14, Color.RED);
+      this.scene.placeImageXY(restartText, sceneWidth / 2, sceneHeight / 2 + 20);
+    }
+  }
+  
+  //draws the cell at the given index over whatever was there before
+  void drawCellAt(int index) {
+    IBoard board = this.game.board;
+    WorldImage cellImage = CellImages.draw(board.isRevealed(index), board.isFlagged(index),
+        board.isMine(index), board.adjacentMines(index));
+    
+    int x = (index % this.game.cols) * this.cellSize + this.cellSize / 2;
+    int y = (index / this.game.cols) * this.cellSize + this.cellSize / 2 + this.headerHeight;
+    
+    this.scene.placeImageXY(cellImage, x, y);
+  }
+  
+  //draws the header (background, mines remaining and clicks) over the old one
+  void drawHeader() {
+    int sceneWidth = this.game.cols * this.cellSize;
+    this.drawnClicks = this.game.clickCount;
+    this.drawnMinesRemaining = this.game.minesRemaining();
+    
+    //draw the background of the header
+    WorldImage headerBackground = new RectangleImage(sceneWidth, this.headerHeight, 
+        OutlineMode.SOLID, Color.LIGHT_GRAY);
+    this.scene.placeImageXY(headerBackground, sceneWidth / 2, this.headerHeight / 2);
+    
+    //draws the mines remaining counter
+    WorldImage mineCounter = new TextImage("Mines remaining: " + this.drawnMinesRemaining, 10,
+        Color.BLACK);
+    this.scene.placeImageXY(mineCounter, 55, this.headerHeight / 2);
+    
+    //draw click counter
+    WorldImage clickCounter = new TextImage("Clicks: " + this.drawnClicks, 10, Color.BLACK);
+    this.scene.placeImageXY(clickCounter, sceneWidth - 35, this.headerHeight / 2);
+  }
+  
+  //handles mouse clicks
+  public void onMouseClicked(Posn pos, String buttonName) {
+    int adjustedY = pos.y - this.headerHeight;
     
     //only process clicks on the grid area (not header)
     if (adjustedY >= 0) {
@@ -386,16 +1505,38 @@ class MineWorld extends World {
       else if (buttonName.equals("RightButton")) {
         this.game.rightClick(row, col);
       }
+      else if (buttonName.equals("MiddleButton")) {
+        this.game.chord(row, col);
+      }
     }
   }
   
-  //restarts the game when 'r' is pressed and game is over
+  //restarts the game when 'r' is pressed and game is over, with a board from the
+  //pool when one is ready
   public void onKeyEvent(String key) {
     if (key.equals("r") && this.game.gameOver) {
       this.game.resetGame();
     }
   }
   
+  //starts the game's pool before the app runs, so only a world that is actually
+  //played has a thread building boards for it
+  public void bigBang(int width, int height, double speed) {
+    this.startPool();
+    super.bigBang(width, height, speed);
+  }
+  
+  //starts the game's pool of POOL_BOARDS boards (stopped again by lastScene)
+  void startPool() {
+    this.game.startPool(POOL_BOARDS);
+  }
+  
+  //stops the game's pool when the world ends, and draws the last scene
+  public WorldScene lastScene(String msg) {
+    this.game.stopPool();
+    return this.makeScene();
+  }
+  
 }
 
 //test class!!
@@ -806,6 +1947,45 @@ class Examples {
     }
   }
   
+  //test that cell images are shared and drawing allocates nothing
+  void testCellImageCache(Tester t) {
+    //cells that look the same share one image
+    Cell hidden1 = new Cell();
+    Cell hidden2 = new Cell(true);
+    t.checkExpect(hidden1.drawCell() == hidden2.drawCell(), true);
+    Cell flagged = new Cell(true);
+    flagged.toggleFlag();
+    t.checkExpect(flagged.drawCell() == CellImages.IMAGES[CellImages.FLAGGED], true);
+    t.checkExpect(flagged.drawCell() == hidden1.drawCell(), false);
+    
+    //a revealed flagged mine looks like any revealed mine
+    t.checkExpect(CellImages.draw(true, true, true, 3), CellImages.IMAGES[CellImages.MINE]);
+    
+    //every number has its own image
+    t.checkExpect(CellImages.stateOf(true, false, false, 0), CellImages.REVEALED);
+    t.checkExpect(CellImages.stateOf(true, false, false, 8), CellImages.REVEALED + 8);
+    t.checkExpect(CellImages.IMAGES.length, 12);
+    
+    //drawing a whole expert board many times allocates nothing per cell
+    Game drawGame = new Game(16, 30, 99, new Random(6));
+    drawGame.revealAllMines();
+    drawGame.leftClick(0, 0);
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)
+        java.lang.management.ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long before = bean.getThreadAllocatedBytes(threadId);
+    for (int frame = 0; frame < 100; frame++) {
+      for (int i = 0; i < 16; i++) {
+        for (int j = 0; j < 30; j++) {
+          drawGame.grid.get(i).get(j).drawCell();
+        }
+      }
+    }
+    long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+    //only the measurement itself may allocate a little
+    t.checkExpect(allocated < 1024, true);
+  }
+  
   //test initializeGrid
   void testInitializeGrid(Tester t) {
     Game gridGame = new Game(9, 10, 0, new Random(25));
@@ -858,6 +2038,124 @@ class Examples {
     t.checkExpect(totalMines, 5);
   }
   
+  //test placeMines at every density
+  void testPlaceMinesDensity(Tester t) {
+    //the same seed always gives the same board
+    Game first = new Game(16, 30, 99, new Random(31));
+    Game second = new Game(16, 30, 99, new Random(31));
+    boolean same = true;
+    for (int index = 0; index < 480; index++) {
+      same = same && first.board.isMine(index) == second.board.isMine(index);
+    }
+    t.checkExpect(same, true);
+    
+    //the exact number of mines is placed at low, half and high density
+    int[] counts = {1, 40, 41, 60, 80};
+    for (int numMines : counts) {
+      Game densityGame = new Game(9, 9, numMines, new Random(numMines));
+      int placed = 0;
+      for (int index = 0; index < 81; index++) {
+        if (densityGame.board.isMine(index)) {
+          placed++;
+        }
+      }
+      t.checkExpect(placed, numMines);
+      t.checkExpect(densityGame.hiddenSafeCells, 81 - numMines);
+    }
+    
+    //a completely full large board (all but one cell) is just as quick
+    Game fullGame = new Game(1000, 1000, 999999, new Random(9), true);
+    int safe = 0;
+    for (int index = 0; index < 1000000; index++) {
+      if (!fullGame.board.isMine(index)) {
+        safe++;
+      }
+    }
+    t.checkExpect(safe, 1);
+    
+    //every cell can end up with a mine
+    boolean[] everMined = new boolean[81];
+    for (int seed = 0; seed < 200; seed++) {
+      Game spreadGame = new Game(9, 9, 10, new Random(seed));
+      for (int index = 0; index < 81; index++) {
+        everMined[index] = everMined[index] || spreadGame.board.isMine(index);
+      }
+    }
+    boolean all = true;
+    for (boolean mined : everMined) {
+      all = all && mined;
+    }
+    t.checkExpect(all, true);
+  }
+  
+  //test placing the mines on the first click
+  void testFirstClickSafe(Tester t) {
+    //nothing is placed until the first click
+    Game lazyGame = new Game(16, 30, 99, new Random(14), false, Game.PLACE_SAFE_CELL);
+    t.checkExpect(lazyGame.minesPlaced, false);
+    int mines = 0;
+    for (int index = 0; index < 480; index++) {
+      if (lazyGame.board.isMine(index)) {
+        mines++;
+      }
+    }
+    t.checkExpect(mines, 0);
+    t.checkExpect(lazyGame.hiddenSafeCells, 381);
+    
+    //flagging first doesn't place them, and neither does clicking the flag
+    lazyGame.rightClick(0, 0);
+    lazyGame.leftClick(0, 0);
+    t.checkExpect(lazyGame.minesPlaced, false);
+    lazyGame.rightClick(0, 0);
+    
+    //the first click is never a mine
+    for (int seed = 0; seed < 50; seed++) {
+      Game safeGame = new Game(9, 9, 70, new Random(seed), false, Game.PLACE_SAFE_CELL);
+      safeGame.leftClick(seed % 9, seed / 9 % 9);
+      t.checkExpect(safeGame.gameOver && !safeGame.gameWon, false);
+      t.checkExpect(safeGame.minesPlaced, true);
+      t.checkExpect(safeGame.board.isRevealed(seed % 9 * 9 + seed / 9 % 9), true);
+    }
+    
+    //the safe area mode opens the first click, since all its neighbors are clear
+    for (int seed = 0; seed < 50; seed++) {
+      Game areaGame = new Game(16, 30, 99, new Random(seed), true, Game.PLACE_SAFE_AREA);
+      areaGame.leftClick(8, 15);
+      t.checkExpect(areaGame.board.adjacentMines(8 * 30 + 15), 0);
+      t.checkExpect(areaGame.revealCount > 1, true);
+      
+      //and the right number of mines went somewhere else
+      mines = 0;
+      for (int index = 0; index < 480; index++) {
+        if (areaGame.board.isMine(index)) {
+          mines++;
+        }
+      }
+      t.checkExpect(mines, 99);
+    }
+    
+    //without room around the click, only the clicked cell is kept clear
+    Game crowdedGame = new Game(9, 9, 75, new Random(3), false, Game.PLACE_SAFE_AREA);
+    crowdedGame.leftClick(4, 4);
+    t.checkExpect(crowdedGame.board.isMine(40), false);
+    t.checkExpect(crowdedGame.board.isRevealed(40), true);
+    
+    //resetting waits for the first click again
+    crowdedGame.resetGame();
+    t.checkExpect(crowdedGame.minesPlaced, false);
+    
+    //the same seed and first click give the same board
+    Game first = new Game(9, 9, 10, new Random(8), false, Game.PLACE_SAFE_AREA);
+    Game second = new Game(9, 9, 10, new Random(8), false, Game.PLACE_SAFE_AREA);
+    first.leftClick(2, 3);
+    second.leftClick(2, 3);
+    boolean same = true;
+    for (int index = 0; index < 81; index++) {
+      same = same && first.board.isMine(index) == second.board.isMine(index);
+    }
+    t.checkExpect(same, true);
+  }
+  
   //test leftClick
   void testLeftClick(Tester t) {
     Game clickGame = new Game(9, 9, 0, new Random(5)); //no mines for safe testing
@@ -1125,9 +2423,65 @@ class Examples {
     t.checkExpect(almostWinWorld.game.gameOver, true);
   }
   
-  //test onMouseClicked
-  void testOnMouseClicked(Tester t) {
-    //test left click
+  //test that makeScene only redraws what changed
+  void testDirtyRendering(Tester t) {
+    MineWorld dirtyWorld = new MineWorld(new Game(9, 9, 10, new Random(8)));
+    
+    //a new board is drawn in full
+    t.checkExpect(dirtyWorld.game.fullRedraw, true);
+    WorldScene first = dirtyWorld.makeScene();
+    t.checkExpect(dirtyWorld.game.fullRedraw, false);
+    t.checkExpect(dirtyWorld.game.dirtyCount, 0);
+    t.checkExpect(dirtyWorld.stackedImages, 0);
+    
+    //an idle frame reuses the same scene and draws nothing
+    t.checkExpect(dirtyWorld.makeScene() == first, true);
+    t.checkExpect(dirtyWorld.stackedImages, 0);
+    
+    //flagging a cell marks only that cell
+    dirtyWorld.game.rightClick(0, 0);
+    t.checkExpect(dirtyWorld.game.dirtyCount, 1);
+    t.checkExpect(dirtyWorld.game.dirtyCells[0], 0);
+    t.checkExpect(dirtyWorld.makeScene() == first, true);
+    t.checkExpect(dirtyWorld.stackedImages, 1);
+    t.checkExpect(dirtyWorld.drawnMinesRemaining, 9);
+    
+    //a reveal marks exactly the cells it opened
+    int safe = 1;
+    while (dirtyWorld.game.board.isMine(safe)) {
+      safe++;
+    }
+    dirtyWorld.game.leftClick(safe / 9, safe % 9);
+    if (!dirtyWorld.game.gameOver) {
+      t.checkExpect(dirtyWorld.game.dirtyCount, dirtyWorld.game.revealCount);
+      t.checkExpect(dirtyWorld.makeScene() == first, true);
+      t.checkExpect(dirtyWorld.drawnClicks, 1);
+    }
+    
+    //ending the game rebuilds the scene to show the message
+    dirtyWorld.game.gameOver = true;
+    t.checkExpect(dirtyWorld.makeScene() == first, false);
+    
+    //so does starting over
+    dirtyWorld.game.resetGame();
+    t.checkExpect(dirtyWorld.game.fullRedraw, true);
+    WorldScene afterReset = dirtyWorld.makeScene();
+    t.checkExpect(afterReset.width, 9 * 20);
+    t.checkExpect(dirtyWorld.drawnGameOver, false);
+    
+    //recording more changes than there is room for asks for a full redraw
+    Game bigGame = new Game(9, 9, 0, new Random(8));
+    bigGame.clearDirty();
+    for (int k = 0; k < 82; k++) {
+      bigGame.markDirty(0);
+    }
+    t.checkExpect(bigGame.dirtyCount, 81);
+    t.checkExpect(bigGame.fullRedraw, true);
+  }
+  
+  //test onMouseClicked
+  void testOnMouseClicked(Tester t) {
+    //test left click
     MineWorld clickWorld = new MineWorld(9, 9, 0); //no mines
     Cell testCell = clickWorld.game.grid.get(1).get(1);
     t.checkExpect(testCell.isRevealed, false);
@@ -1148,6 +2502,1619 @@ class Examples {
     t.checkExpect(flagCell.isFlagged, true);
   }
   
+  //test that adjacency counts are cached when mines are placed and moved
+  void testAdjacencyCache(Tester t) {
+    Game cacheGame = new Game(9, 9, 0, new Random(4));
+    Cell center = cacheGame.grid.get(4).get(4);
+    t.checkExpect(center.countNeighboringMines(), 0);
+    
+    //placing mines around the center updates its count
+    cacheGame.board.setMine(3 * 9 + 3, true);
+    cacheGame.board.setMine(5 * 9 + 5, true);
+    t.checkExpect(center.countNeighboringMines(), 2);
+    t.checkExpect(cacheGame.board.adjacentMines(40), 2);
+    t.checkExpect(cacheGame.grid.get(2).get(2).countNeighboringMines(), 1);
+    
+    //moving a mine away updates both neighborhoods
+    cacheGame.moveMine(3 * 9 + 3, 0);
+    t.checkExpect(center.countNeighboringMines(), 1);
+    t.checkExpect(cacheGame.grid.get(2).get(2).countNeighboringMines(), 0);
+    t.checkExpect(cacheGame.grid.get(1).get(1).countNeighboringMines(), 1);
+    t.checkExpect(cacheGame.grid.get(0).get(0).isMine, true);
+    
+    //the cached counts agree with a full recount after placement
+    Game placedGame = new Game(16, 30, 99, new Random(12));
+    for (int i = 0; i < 16; i++) {
+      for (int j = 0; j < 30; j++) {
+        Cell cell = placedGame.grid.get(i).get(j);
+        int count = 0;
+        for (Cell neighbor : cell.neighbors) {
+          if (neighbor.isMine) {
+            count++;
+          }
+        }
+        t.checkExpect(cell.countNeighboringMines(), count);
+      }
+    }
+    
+    //the same holds for the packed board
+    Game packedGame = new Game(9, 9, 0, new Random(4), true);
+    packedGame.board.setMine(30, true);
+    packedGame.moveMine(30, 0);
+    t.checkExpect(packedGame.board.adjacentMines(40), 0);
+    t.checkExpect(packedGame.board.adjacentMines(10), 1);
+  }
+  
+  //test the running count of hidden safe cells
+  void testHiddenSafeCells(Tester t) {
+    Game countGame = new Game(9, 9, 10, new Random(77));
+    t.checkExpect(countGame.hiddenSafeCells, 71);
+    
+    //flags don't change the count
+    countGame.rightClick(0, 0);
+    t.checkExpect(countGame.hiddenSafeCells, 71);
+    countGame.rightClick(0, 0);
+    
+    //every safe cell a click reveals is taken off the count
+    int safe = 0;
+    while (countGame.board.isMine(safe)) {
+      safe++;
+    }
+    countGame.leftClick(safe / 9, safe % 9);
+    t.checkExpect(countGame.hiddenSafeCells, 71 - countGame.revealCount);
+    
+    //revealing every remaining safe cell wins on the last click
+    for (int index = 0; index < 81 && !countGame.gameOver; index++) {
+      if (!countGame.board.isMine(index) && !countGame.board.isRevealed(index)) {
+        countGame.leftClick(index / 9, index % 9);
+      }
+    }
+    t.checkExpect(countGame.hiddenSafeCells, 0);
+    t.checkExpect(countGame.gameWon, true);
+    
+    //resetting starts the count over
+    countGame.resetGame();
+    t.checkExpect(countGame.hiddenSafeCells, 71);
+    
+    //losing reveals the mines but leaves the count alone
+    int mine = 0;
+    while (!countGame.board.isMine(mine)) {
+      mine++;
+    }
+    countGame.leftClick(mine / 9, mine % 9);
+    t.checkExpect(countGame.gameOver, true);
+    t.checkExpect(countGame.gameWon, false);
+    t.checkExpect(countGame.hiddenSafeCells, 71);
+    
+    //a full check recounts after cells are changed directly
+    Game directGame = new Game(9, 9, 0, new Random(77));
+    directGame.grid.get(0).get(0).isRevealed = true;
+    directGame.checkWinCondition();
+    t.checkExpect(directGame.hiddenSafeCells, 80);
+    t.checkExpect(directGame.gameWon, false);
+  }
+  
+  //test the live flag count
+  void testFlagCount(Tester t) {
+    Game flagGame = new Game(9, 9, 3, new Random(30));
+    t.checkExpect(flagGame.flagCount, 0);
+    t.checkExpect(flagGame.minesRemaining(), 3);
+    
+    //flagging and unflagging moves the count both ways
+    flagGame.rightClick(0, 0);
+    flagGame.rightClick(1, 1);
+    t.checkExpect(flagGame.flagCount, 2);
+    t.checkExpect(flagGame.minesRemaining(), 1);
+    flagGame.rightClick(0, 0);
+    t.checkExpect(flagGame.flagCount, 1);
+    
+    //more flags than mines goes negative
+    flagGame.rightClick(2, 2);
+    flagGame.rightClick(3, 3);
+    flagGame.rightClick(4, 4);
+    t.checkExpect(flagGame.minesRemaining(), -1);
+    
+    //right clicking a revealed cell doesn't count
+    Game revealGame = new Game(9, 9, 0, new Random(30));
+    revealGame.leftClick(4, 4);
+    revealGame.gameOver = false;
+    revealGame.rightClick(4, 4);
+    t.checkExpect(revealGame.flagCount, 0);
+    
+    //out of bounds right clicks don't count
+    flagGame.rightClick(20, 20);
+    t.checkExpect(flagGame.flagCount, 4);
+    
+    //resetting clears the flags
+    flagGame.resetGame();
+    t.checkExpect(flagGame.flagCount, 0);
+    t.checkExpect(flagGame.minesRemaining(), 3);
+  }
+  
+  //test the large-board mode
+  void testLargeBoard(Tester t) {
+    //large boards can be any size that fits in an array
+    Game wideGame = new Game(1, 500, 10, new Random(2), true);
+    t.checkExpect(wideGame.board.size(), 500);
+    Game tinyGame = new Game(1, 2, 1, new Random(2), true);
+    t.checkExpect(tinyGame.board.size(), 2);
+    
+    //but still need at least one row and column
+    t.checkConstructorException(new IllegalArgumentException("rows and columns must be at "
+        + "least 1"), "Game", 0, 15, 0, new Random(2), true);
+    t.checkConstructorException(new IllegalArgumentException("rows and columns must be at "
+        + "least 1"), "Game", 15, -3, 0, new Random(2), true);
+    t.checkConstructorException(new IllegalArgumentException("a board can have at most "
+        + Game.MAX_CELLS + " cells"), "Game", 100000, 100000, 0, new Random(2), true);
+    t.checkConstructorException(new IllegalArgumentException("number of mines must be between "
+        + "0 and 1"), "Game", 1, 2, 2, new Random(2), true);
+    
+    //the classic game keeps its limits
+    t.checkConstructorException(new IllegalArgumentException("rows must be between 9 and 30 "
+        + "(inclusive)"), "Game", 100, 100, 10, new Random(2), false);
+    
+    //a 1000 x 1000 board with 15% mines
+    Game bigGame = new Game(1000, 1000, 150000, new Random(2), true);
+    int mines = 0;
+    for (int index = 0; index < bigGame.board.size(); index++) {
+      if (bigGame.board.isMine(index)) {
+        mines++;
+      }
+    }
+    t.checkExpect(mines, 150000);
+    t.checkExpect(bigGame.hiddenSafeCells, 850000);
+    //measuring the board takes a bit per cell
+    t.checkExpect(bigGame.measured.length, 1000000 / 64);
+    
+    //an empty 1000 x 1000 board opens in one click and wins
+    Game emptyGame = new Game(1000, 1000, 0, new Random(2), true);
+    emptyGame.leftClick(500, 500);
+    t.checkExpect(emptyGame.revealCount, 1000000);
+    t.checkExpect(emptyGame.gameWon, true);
+  }
+  
+  //test the reveal engine on Game
+  void testRevealEngine(Tester t) {
+    //an empty board opens completely from one click, each cell reported once
+    Game emptyGame = new Game(30, 30, 0, new Random(3), true);
+    t.checkExpect(emptyGame.reveal(0), 900);
+    t.checkExpect(emptyGame.revealCount, 900);
+    boolean[] seen = new boolean[900];
+    int distinct = 0;
+    for (int k = 0; k < emptyGame.revealCount; k++) {
+      if (!seen[emptyGame.revealQueue[k]]) {
+        seen[emptyGame.revealQueue[k]] = true;
+        distinct++;
+      }
+    }
+    t.checkExpect(distinct, 900);
+    
+    //revealing again finds nothing new
+    t.checkExpect(emptyGame.reveal(450), 0);
+    t.checkExpect(emptyGame.revealCount, 0);
+    
+    //a wall of mines down column 4 stops the fill at the numbers beside it
+    Game wallGame = new Game(9, 9, 0, new Random(3));
+    for (int i = 0; i < 9; i++) {
+      wallGame.board.setMine(i * 9 + 4, true);
+    }
+    t.checkExpect(wallGame.reveal(0), 36);
+    t.checkExpect(wallGame.grid.get(0).get(3).isRevealed, true);
+    t.checkExpect(wallGame.grid.get(0).get(4).isRevealed, false);
+    t.checkExpect(wallGame.grid.get(0).get(5).isRevealed, false);
+    
+    //a flagged cell is neither revealed nor opened through
+    Game flagGame = new Game(9, 9, 0, new Random(3));
+    flagGame.board.setFlagged(40, true);
+    t.checkExpect(flagGame.reveal(0), 80);
+    t.checkExpect(flagGame.board.isRevealed(40), false);
+    t.checkExpect(flagGame.reveal(40), 0);
+  }
+  
+  //test that Cell.reveal() handles regions too big for recursion
+  void testRevealLongChain(Tester t) {
+    ArrayList<Cell> chain = new ArrayList<Cell>();
+    for (int i = 0; i < 200000; i++) {
+      chain.add(new Cell());
+    }
+    for (int i = 0; i + 1 < chain.size(); i++) {
+      chain.get(i).addNeighbor(chain.get(i + 1));
+      chain.get(i + 1).addNeighbor(chain.get(i));
+    }
+    chain.get(0).reveal();
+    t.checkExpect(chain.get(199999).isRevealed, true);
+  }
+  
+  //test the headless solver
+  void testSolver(Tester t) {
+    //an empty board is won with one click
+    Game emptyGame = new Game(9, 9, 0, new Random(1));
+    Solver emptySolver = new Solver(emptyGame);
+    t.checkExpect(emptySolver.solve(), true);
+    t.checkExpect(emptyGame.clickCount, 1);
+    t.checkExpect(emptySolver.guesses, 0);
+    
+    //a 1-2 pattern along the top edge needs the pair rule:
+    //row 1 is revealed with its numbers, row 0 is hidden with mines at columns 2 and 6
+    Game pairGame = new Game(9, 9, 0, new Random(1));
+    pairGame.board.setMine(2, true);
+    pairGame.board.setMine(6, true);
+    pairGame.board.setMine(3, true);
+    pairGame.numMines = 3;
+    for (int index = 9; index < 81; index++) {
+      pairGame.reveal(index);
+    }
+    pairGame.checkWinCondition();
+    Solver pairSolver = new Solver(pairGame);
+    t.checkExpect(pairSolver.solve(), true);
+    t.checkExpect(pairSolver.guesses, 0);
+    
+    //deductions are sound: every flag the solver places is on a mine
+    Game expertGame = new Game(16, 30, 99, new Random(2), false, Game.PLACE_SAFE_AREA);
+    Solver expertSolver = new Solver(expertGame);
+    boolean flagsCorrect = true;
+    for (int k = 0; k < 200; k++) {
+      expertGame.resetGame();
+      expertSolver.solve();
+      for (int index = 0; index < 480; index++) {
+        if (expertGame.board.isFlagged(index) && !expertGame.board.isMine(index)) {
+          flagsCorrect = false;
+        }
+      }
+    }
+    t.checkExpect(flagsCorrect, true);
+    t.checkExpect(expertSolver.gamesPlayed, 200);
+    //expert with a safe opening is won a fair share of the time
+    t.checkExpect(expertSolver.gamesWon > 40, true);
+    t.checkExpect(expertSolver.averageMicros() > 0, true);
+    
+    //beginner boards are won most of the time
+    Game beginnerGame = new Game(9, 9, 10, new Random(3), false, Game.PLACE_SAFE_AREA);
+    Solver beginnerSolver = new Solver(beginnerGame);
+    for (int k = 0; k < 200; k++) {
+      beginnerGame.resetGame();
+      beginnerSolver.solve();
+    }
+    t.checkExpect(beginnerSolver.gamesWon > 150, true);
+    
+    //a player's wrong flag leaves numbers with more flags than mines, and can leave
+    //nothing to click while the game goes on: the solver stops instead of failing
+    Game flaggedGame = new Game(9, 9, 10, new Random(4));
+    Solver flaggedSolver = new Solver(flaggedGame);
+    Solver exactFlaggedSolver = new Solver(flaggedGame);
+    exactFlaggedSolver.calculator = new ProbabilityCalculator(flaggedGame);
+    boolean neverWon = true;
+    for (int k = 0; k < 200; k++) {
+      flaggedGame.resetGame();
+      int wrong = 0;
+      while (wrong == 40 || flaggedGame.board.isMine(wrong)) {
+        wrong++;
+      }
+      flaggedGame.rightClick(wrong / 9, wrong % 9);
+      Solver solver = k % 2 == 0 ? flaggedSolver : exactFlaggedSolver;
+      neverWon = neverWon && !solver.solve();
+    }
+    t.checkExpect(neverWon, true);
+    t.checkExpect(flaggedSolver.gamesPlayed + exactFlaggedSolver.gamesPlayed, 200);
+  }
+  
+  //tests for the ProbabilityCalculator
+  void testProbabilityCalculator(Tester t) {
+    //nothing revealed: every cell has the mine density
+    Game blankGame = new Game(9, 9, 10, new Random(1));
+    ProbabilityCalculator blank = new ProbabilityCalculator(blankGame);
+    t.checkExpect(blank.calculate(), true);
+    t.checkInexact(blank.probability[40], 10.0 / 81, 0.000001);
+    
+    //a revealed 1 in the corner: its three hidden neighbors share the one mine, and
+    //the other 9 mines are spread over the 77 interior cells
+    Game cornerGame = new Game(9, 9, 0, new Random(1));
+    cornerGame.board.setMine(10, true);
+    for (int index = 72; index < 81; index++) {
+      cornerGame.board.setMine(index, true);
+    }
+    cornerGame.numMines = 10;
+    cornerGame.board.setRevealed(0, true);
+    ProbabilityCalculator corner = new ProbabilityCalculator(cornerGame);
+    t.checkExpect(corner.calculate(), true);
+    t.checkExpect(corner.components, 1);
+    t.checkInexact(corner.probability[1], 1.0 / 3, 0.000001);
+    t.checkInexact(corner.probability[10], 1.0 / 3, 0.000001);
+    t.checkInexact(corner.probability[40], 9.0 / 77, 0.000001);
+    t.checkInexact(corner.probability[0], 0.0, 0.000001);
+    //asking again finds the same component in the memo
+    corner.calculate();
+    t.checkExpect(corner.memoHits, 1);
+    //a flag counts as a mine
+    cornerGame.rightClick(8, 8);
+    corner.calculate();
+    t.checkInexact(corner.probability[80], 1.0, 0.000001);
+    t.checkInexact(corner.probability[40], 8.0 / 76, 0.000001);
+    
+    //matches counting every layout of small boards by brute force
+    Random rand = new Random(5);
+    boolean matches = true;
+    for (int trial = 0; trial < 40; trial++) {
+      Game game = new Game(4, 4, 4, new Random(trial), true);
+      for (int click = 0; click < 2; click++) {
+        int index = rand.nextInt(16);
+        if (!game.board.isMine(index)) {
+          game.reveal(index);
+        }
+      }
+      ProbabilityCalculator calculator = new ProbabilityCalculator(game);
+      calculator.calculate();
+      double[] expected = this.bruteForceProbability(game);
+      for (int index = 0; index < 16; index++) {
+        if (Math.abs(calculator.probability[index] - expected[index]) > 0.000001) {
+          matches = false;
+        }
+      }
+    }
+    t.checkExpect(matches, true);
+    
+    //a component that runs out of steps falls back to the estimate
+    Game bigGame = new Game(16, 30, 99, new Random(4), true, Game.PLACE_SAFE_AREA);
+    bigGame.leftClick(8, 15);
+    ProbabilityCalculator limited = new ProbabilityCalculator(bigGame);
+    limited.maxNodes = 1;
+    t.checkExpect(limited.calculate(), false);
+    boolean inRange = true;
+    for (double chance : limited.probability) {
+      inRange = inRange && chance >= 0 && chance <= 1;
+    }
+    t.checkExpect(inRange, true);
+    
+    //the solver can guess with exact chances
+    Game exactGame = new Game(9, 9, 10, new Random(3), false, Game.PLACE_SAFE_AREA);
+    Solver exactSolver = new Solver(exactGame);
+    exactSolver.calculator = new ProbabilityCalculator(exactGame);
+    for (int k = 0; k < 100; k++) {
+      exactGame.resetGame();
+      exactSolver.solve();
+    }
+    t.checkExpect(exactSolver.gamesWon > 75, true);
+  }
+  
+  //tests for the board measurements
+  void testBoardMetrics(Tester t) {
+    //one mine in the middle: a single opening reveals everything
+    Game centerGame = new Game(9, 9, 0, new Random(1));
+    centerGame.board.setMine(40, true);
+    centerGame.measureBoard();
+    t.checkExpect(centerGame.openings, 1);
+    t.checkExpect(centerGame.islands, 0);
+    t.checkExpect(centerGame.bbbv, 1);
+    
+    //a wall of mines down the middle column splits the board into two openings
+    Game wallGame = new Game(9, 9, 0, new Random(1));
+    for (int row = 0; row < 9; row++) {
+      wallGame.board.setMine(row * 9 + 4, true);
+    }
+    wallGame.measureBoard();
+    t.checkExpect(wallGame.openings, 2);
+    t.checkExpect(wallGame.bbbv, 2);
+    
+    //mines in the four corners of a 3x3 board leave one island of 5 numbered cells
+    Game cornerGame = new Game(3, 3, 0, new Random(1), true);
+    cornerGame.board.setMine(0, true);
+    cornerGame.board.setMine(2, true);
+    cornerGame.board.setMine(6, true);
+    cornerGame.board.setMine(8, true);
+    cornerGame.measureBoard();
+    t.checkExpect(cornerGame.openings, 0);
+    t.checkExpect(cornerGame.islands, 1);
+    t.checkExpect(cornerGame.largestIsland, 5);
+    t.checkExpect(cornerGame.bbbv, 5);
+    
+    //placing the mines measures the board, and the 3BV is exactly the clicks taken
+    //by clicking every opening and then every numbered cell left
+    boolean matches = true;
+    Game expertGame = new Game(16, 30, 99, new Random(2), true);
+    for (int k = 0; k < 50; k++) {
+      expertGame.resetGame();
+      int bbbv = expertGame.bbbv;
+      int clicks = 0;
+      for (int pass = 0; pass < 2; pass++) {
+        for (int index = 0; index < 480; index++) {
+          if (!expertGame.board.isRevealed(index) && !expertGame.board.isMine(index)
+              && (pass == 1 || expertGame.board.adjacentMines(index) == 0)) {
+            expertGame.reveal(index);
+            clicks++;
+          }
+        }
+      }
+      matches = matches && bbbv == clicks && bbbv >= expertGame.openings;
+    }
+    t.checkExpect(matches, true);
+    
+    //deferred placement measures on the first click, and the efficiency follows
+    Game safeGame = new Game(9, 9, 10, new Random(3), false, Game.PLACE_SAFE_AREA);
+    t.checkExpect(safeGame.bbbv, 0);
+    t.checkInexact(safeGame.efficiency(), 0.0, 0.000001);
+    safeGame.leftClick(4, 4);
+    t.checkExpect(safeGame.bbbv > 0, true);
+    t.checkExpect(safeGame.openings > 0, true);
+    t.checkInexact(safeGame.efficiency(), (double) safeGame.bbbv, 0.000001);
+    safeGame.resetGame();
+    t.checkExpect(safeGame.bbbv, 0);
+  }
+  
+  //tests for PLACE_NO_GUESS
+  void testNoGuessPlacement(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("unknown placement mode 4"),
+        "Game", 9, 9, 10, new Random(1), false, 4);
+    
+    //every board is cleared from the first click by deduction alone
+    Game expertGame = new Game(16, 30, 99, new Random(5), true, Game.PLACE_NO_GUESS);
+    Solver solver = new Solver(expertGame);
+    solver.deduceOnly = true;
+    boolean allSolved = true;
+    boolean allMeasured = true;
+    for (int k = 0; k < 20; k++) {
+      expertGame.resetGame();
+      expertGame.leftClick(8, 15);
+      int bbbv = expertGame.bbbv;
+      expertGame.measureBoard();
+      allMeasured = allMeasured && bbbv == expertGame.bbbv;
+      allSolved = allSolved && expertGame.noGuess && solver.solve();
+    }
+    t.checkExpect(allSolved, true);
+    t.checkExpect(allMeasured, true);
+    t.checkExpect(solver.guesses, 0);
+    t.checkExpect(expertGame.generationAttempts >= 1, true);
+    t.checkExpect(expertGame.generationNanos > 0, true);
+    
+    //the mine count is kept and the first click opens an area
+    Game classicGame = new Game(9, 9, 10, new Random(6), false, Game.PLACE_NO_GUESS);
+    classicGame.leftClick(0, 0);
+    int mines = 0;
+    for (int index = 0; index < 81; index++) {
+      if (classicGame.board.isMine(index)) {
+        mines++;
+      }
+    }
+    t.checkExpect(mines, 10);
+    t.checkExpect(classicGame.gameOver && !classicGame.gameWon, false);
+    t.checkExpect(classicGame.board.adjacentMines(0), 0);
+    t.checkExpect(classicGame.noGuess, true);
+    
+    //a board too crowded to ever open up is kept as the last layout tried
+    Game crowdedGame = new Game(9, 9, 70, new Random(7), false, Game.PLACE_NO_GUESS);
+    crowdedGame.leftClick(4, 4);
+    t.checkExpect(crowdedGame.gameOver && !crowdedGame.gameWon, false);
+    t.checkExpect(crowdedGame.generationAttempts <= 100, true);
+    
+    //flags placed before the first click stay put however many layouts it takes
+    boolean flagsKept = true;
+    boolean minesKept = true;
+    boolean retried = false;
+    for (int seed = 0; seed < 50; seed++) {
+      Game flaggedGame = new Game(16, 30, 99, new Random(seed), true, Game.PLACE_NO_GUESS);
+      flaggedGame.rightClick(0, 0);
+      flaggedGame.rightClick(15, 29);
+      flaggedGame.leftClick(8, 15);
+      flagsKept = flagsKept && flaggedGame.board.isFlagged(0)
+          && flaggedGame.board.isFlagged(479) && flaggedGame.flagCount == 2;
+      int placed = 0;
+      for (int index = 0; index < 480; index++) {
+        placed += flaggedGame.board.isMine(index) ? 1 : 0;
+      }
+      minesKept = minesKept && placed == 99;
+      retried = retried || flaggedGame.generationAttempts > 1;
+    }
+    t.checkExpect(flagsKept, true);
+    t.checkExpect(minesKept, true);
+    t.checkExpect(retried, true);
+  }
+  
+  //tests for resetting a game in place
+  void testResetInPlace(Tester t) {
+    Game game = new Game(16, 30, 99, new Random(1));
+    Cell[] cells = ((CellBoard) game.board).cells.clone();
+    ArrayList<Cell> firstNeighbors = cells[0].neighbors;
+    IBoard board = game.board;
+    game.leftClick(3, 3);
+    game.rightClick(10, 10);
+    
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)
+        java.lang.management.ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long before = bean.getThreadAllocatedBytes(threadId);
+    for (int k = 0; k < 1000; k++) {
+      game.resetGame();
+    }
+    long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+    //no new Cell objects, neighbor lists or boards, and nothing else allocated either
+    t.checkExpect(allocated < 1024, true);
+    t.checkExpect(game.board, board);
+    boolean sameCells = true;
+    for (int index = 0; index < 480; index++) {
+      sameCells = sameCells && game.grid.get(index / 30).get(index % 30) == cells[index];
+    }
+    t.checkExpect(sameCells, true);
+    t.checkExpect(cells[0].neighbors, firstNeighbors);
+    t.checkExpect(cells[0].neighbors.size(), 3);
+    
+    //the cleared board is a fresh game: all hidden, right mine count and numbers
+    int mines = 0;
+    boolean fresh = true;
+    boolean counted = true;
+    for (Cell cell : cells) {
+      mines += cell.isMine ? 1 : 0;
+      fresh = fresh && !cell.isRevealed && !cell.isFlagged;
+      int around = 0;
+      for (Cell neighbor : cell.neighbors) {
+        around += neighbor.isMine ? 1 : 0;
+      }
+      counted = counted && around == cell.countNeighboringMines();
+    }
+    t.checkExpect(mines, 99);
+    t.checkExpect(fresh, true);
+    t.checkExpect(counted, true);
+    t.checkExpect(game.flagCount, 0);
+    t.checkExpect(game.hiddenSafeCells, 381);
+    
+    //a packed board resets without allocating too
+    Game packedGame = new Game(100, 100, 2000, new Random(2), true);
+    packedGame.leftClick(50, 50);
+    before = bean.getThreadAllocatedBytes(threadId);
+    for (int k = 0; k < 100; k++) {
+      packedGame.resetGame();
+    }
+    t.checkExpect(bean.getThreadAllocatedBytes(threadId) - before < 1024, true);
+  }
+  
+  //tests for GameSnapshot
+  void testGameSnapshot(Tester t) {
+    //an expert game part way through, with a flag
+    Game game = new Game(16, 30, 99, new Random(1), true, Game.PLACE_SAFE_AREA);
+    game.leftClick(8, 15);
+    int flagIndex = -1;
+    for (int index = 0; index < 480 && flagIndex < 0; index++) {
+      if (!game.board.isRevealed(index) && game.board.isMine(index)) {
+        flagIndex = index;
+      }
+    }
+    game.rightClick(flagIndex / 30, flagIndex % 30);
+    t.checkExpect(GameSnapshot.size(game), 40 + 180);
+    
+    //saving leaves the game's random alone
+    long seed = game.rand.seed;
+    long draws = game.rand.draws;
+    ByteBuffer buffer = GameSnapshot.toBuffer(game);
+    t.checkExpect(buffer.remaining(), 220);
+    t.checkExpect(game.rand.seed, seed);
+    t.checkExpect(game.rand.draws, draws);
+    Game loaded = GameSnapshot.read(buffer);
+    t.checkExpect(buffer.remaining(), 0);
+    t.checkExpect(this.sameCells(game, loaded), true);
+    t.checkExpect(loaded.clickCount, 1);
+    t.checkExpect(loaded.flagCount, 1);
+    t.checkExpect(loaded.hiddenSafeCells, game.hiddenSafeCells);
+    t.checkExpect(loaded.minesPlaced, true);
+    t.checkExpect(loaded.placement, Game.PLACE_SAFE_AREA);
+    //a board still waiting for its mines counts the safe cells it will have
+    Game waiting = new Game(9, 9, 10, new Random(4), false, Game.PLACE_SAFE_AREA);
+    t.checkExpect(GameSnapshot.read(GameSnapshot.toBuffer(waiting)).hiddenSafeCells, 71);
+    t.checkExpect(loaded.bbbv, game.bbbv);
+    t.checkExpect(loaded.board.adjacentMines(flagIndex), game.board.adjacentMines(flagIndex));
+    //the loaded game plays on like the saved one
+    loaded.leftClick(0, 0);
+    game.leftClick(0, 0);
+    t.checkExpect(this.sameCells(game, loaded), true);
+    t.checkExpect(loaded.gameOver, game.gameOver);
+    //and makes the same boards after it
+    loaded.resetGame();
+    game.resetGame();
+    loaded.leftClick(3, 3);
+    game.leftClick(3, 3);
+    t.checkExpect(this.sameCells(game, loaded), true);
+    
+    //a game that is saved deals the same boards as one that never is
+    Game saved = new Game(16, 30, 99, new Random(6), true, Game.PLACE_SAFE_AREA);
+    Game unsaved = new Game(16, 30, 99, new Random(6), true, Game.PLACE_SAFE_AREA);
+    for (int round = 0; round < 3; round++) {
+      GameSnapshot.toBuffer(saved);
+      saved.leftClick(8, 15);
+      GameSnapshot.toBuffer(saved);
+      unsaved.leftClick(8, 15);
+      t.checkExpect(this.sameCells(saved, unsaved), true);
+      saved.resetGame();
+      unsaved.resetGame();
+    }
+    
+    //restoring jumps ahead to the same state as drawing, however many draws it takes
+    SeededRandom drawn = new SeededRandom(11);
+    SeededRandom restored = new SeededRandom(12);
+    boolean sameDraws = true;
+    for (int count = 0; count < 300; count++) {
+      restored.restore(11, count);
+      sameDraws = sameDraws && restored.nextInt() == drawn.nextInt()
+          && restored.draws == count + 1;
+    }
+    t.checkExpect(sameDraws, true);
+    restored.restore(11, Long.MAX_VALUE);
+    t.checkExpect(restored.draws, Long.MAX_VALUE);
+    t.checkException(new IllegalArgumentException("a random can't have drawn less than 0 "
+        + "times"), restored, "restore", 11L, -1L);
+    //so a snapshot claiming a huge number of draws loads at once
+    ByteBuffer huge = GameSnapshot.toBuffer(game);
+    huge.putLong(32, Long.MAX_VALUE);
+    t.checkExpect(GameSnapshot.read(huge).rand.draws, Long.MAX_VALUE);
+    
+    //version 1 snapshots, without the draws, still load
+    ByteBuffer current = GameSnapshot.toBuffer(saved);
+    ByteBuffer old = ByteBuffer.allocate(current.remaining() - 8);
+    for (int k = 0; k < 32; k++) {
+      old.put(current.get(k));
+    }
+    old.put(4, (byte) 1);
+    current.position(40);
+    old.put(current);
+    old.flip();
+    Game fromOld = GameSnapshot.read(old);
+    t.checkExpect(fromOld.rand.seed, saved.rand.seed);
+    t.checkExpect(fromOld.rand.draws, 0L);
+    t.checkExpect(this.sameCells(saved, fromOld), true);
+    
+    //a lost classic game, loaded into a game of the same size without a new board
+    Game lost = new Game(9, 9, 10, new Random(2));
+    for (int index = 0; !lost.gameOver; index++) {
+      lost.leftClick(index / 9, index % 9);
+    }
+    Game reuse = new Game(9, 9, 3, new Random(3));
+    IBoard reusedBoard = reuse.board;
+    t.checkExpect(GameSnapshot.read(GameSnapshot.toBuffer(lost), reuse), reuse);
+    t.checkExpect(reuse.board, reusedBoard);
+    t.checkExpect(this.sameCells(lost, reuse), true);
+    t.checkExpect(reuse.gameOver, true);
+    t.checkExpect(reuse.gameWon, false);
+    t.checkExpect(reuse.numMines, 10);
+    //a different size gets a new game
+    Game other = GameSnapshot.read(GameSnapshot.toBuffer(game), reuse);
+    t.checkExpect(other != reuse, true);
+    t.checkExpect(other.packed, true);
+    
+    //files and channels
+    try {
+      java.nio.file.Path file = java.nio.file.Files.createTempFile("minesweeper", ".snapshot");
+      GameSnapshot.save(lost, file);
+      t.checkExpect(java.nio.file.Files.size(file), 40L + 31);
+      t.checkExpect(this.sameCells(lost, GameSnapshot.load(file)), true);
+      java.nio.file.Files.delete(file);
+    }
+    catch (java.io.IOException e) {
+      t.checkExpect(e, null);
+    }
+    
+    //bad snapshots are rejected
+    ByteBuffer bad = GameSnapshot.toBuffer(lost);
+    bad.put(4, (byte) 3);
+    t.checkException(new IllegalArgumentException("unsupported snapshot version 3"),
+        new GameSnapshot(), "read", bad);
+    t.checkException(new IllegalArgumentException("not a game snapshot"),
+        new GameSnapshot(), "read", ByteBuffer.allocate(64));
+  }
+  
+  //do two games have the same mines, revealed cells and flags?
+  boolean sameCells(Game first, Game second) {
+    if (first.board.size() != second.board.size()) {
+      return false;
+    }
+    for (int index = 0; index < first.board.size(); index++) {
+      if (first.board.isMine(index) != second.board.isMine(index)
+          || first.board.isRevealed(index) != second.board.isRevealed(index)
+          || first.board.isFlagged(index) != second.board.isFlagged(index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  //tests for StateDiff and RemoteBoard
+  void testStateDiff(Tester t) {
+    Game game = new Game(16, 30, 99, new Random(5), true, Game.PLACE_SAFE_AREA);
+    RemoteBoard remote = new RemoteBoard(16, 30);
+    //the first click opens an area, all of it in one diff
+    StateDiff diff = game.leftClick(8, 15);
+    t.checkExpect(diff == game.diff, true);
+    t.checkExpect(diff.count, game.revealCount);
+    t.checkExpect(diff.count > 1, true);
+    ByteBuffer frame = diff.toBuffer();
+    //an opening's cells take about a byte each
+    t.checkExpect(frame.remaining() <= 4 + 2 * diff.count, true);
+    remote.apply(frame);
+    t.checkExpect(this.sameLooks(remote, game), true);
+    t.checkExpect(remote.clickCount, 1);
+    
+    //a flag changes one cell and the flag count
+    int hidden = 0;
+    while (game.board.isRevealed(hidden)) {
+      hidden++;
+    }
+    diff = game.rightClick(hidden / 30, hidden % 30);
+    t.checkExpect(diff.count, 1);
+    remote.apply(diff.toBuffer());
+    t.checkExpect(remote.looks[hidden], (byte) CellImages.FLAGGED);
+    t.checkExpect(remote.flagCount, 1);
+    
+    //a move that changes nothing costs nothing: clicking a revealed cell, or off the board
+    diff = game.leftClick(8, 15);
+    t.checkExpect(diff.count, 0);
+    t.checkExpect(game.rightClick(8, 15).isEmpty(), true);
+    t.checkExpect(game.rightClick(-1, 0).toBuffer().remaining(), 0);
+    remote.apply(game.diff.toBuffer());
+    t.checkExpect(this.sameLooks(remote, game), true);
+    
+    //playing on at random, the frames keep the copy in step to the end
+    Random moves = new Random(3);
+    while (!game.gameOver) {
+      int cell = moves.nextInt(game.board.size());
+      if (moves.nextInt(4) == 0) {
+        remote.apply(game.rightClick(cell / 30, cell % 30).toBuffer());
+      }
+      else if (!game.board.isFlagged(cell)) {
+        remote.apply(game.leftClick(cell / 30, cell % 30).toBuffer());
+      }
+      t.checkExpect(this.sameLooks(remote, game), true);
+      t.checkExpect(remote.flagCount, game.flagCount);
+    }
+    t.checkExpect(remote.gameOver, true);
+    t.checkExpect(remote.gameWon, game.gameWon);
+    t.checkExpect(remote.clickCount, game.clickCount);
+    t.checkExpect(game.leftClick(0, 0).toBuffer().remaining(), 0);
+    
+    //a reset hides everything again
+    remote.apply(game.resetGame().toBuffer());
+    t.checkExpect(this.sameLooks(remote, game), true);
+    t.checkExpect(remote.gameOver, false);
+    t.checkExpect(remote.clickCount, 0);
+    t.checkExpect(remote.flagCount, 0);
+    
+    //a front end that joins late starts from the whole board
+    game.leftClick(0, 0);
+    game.rightClick(15, 29);
+    RemoteBoard late = new RemoteBoard(16, 30);
+    late.apply(game.diff.full().toBuffer());
+    t.checkExpect(this.sameLooks(late, game), true);
+    t.checkExpect(late.flagCount, game.flagCount);
+    t.checkExpect(late.clickCount, game.clickCount);
+    
+    //varints round trip
+    ByteBuffer numbers = ByteBuffer.allocate(32);
+    StateDiff.putVarint(numbers, 0);
+    StateDiff.putVarint(numbers, 127);
+    StateDiff.putVarint(numbers, 128);
+    StateDiff.putVarint(numbers, Integer.MAX_VALUE);
+    t.checkExpect(numbers.position(), 1 + 1 + 2 + 5);
+    numbers.flip();
+    t.checkExpect(StateDiff.getVarint(numbers), 0L);
+    t.checkExpect(StateDiff.getVarint(numbers), 127L);
+    t.checkExpect(StateDiff.getVarint(numbers), 128L);
+    t.checkExpect(StateDiff.getVarint(numbers), (long) Integer.MAX_VALUE);
+    
+    //a frame can't point past the board
+    ByteBuffer bad = ByteBuffer.allocate(8);
+    bad.put((byte) 0);
+    StateDiff.putVarint(bad, 1);
+    StateDiff.putVarint(bad, 500L << 4);
+    bad.flip();
+    t.checkException(
+        new IllegalArgumentException("the frame has a cell past the end of the board"),
+        new RemoteBoard(16, 30), "apply", bad);
+  }
+  
+  //does the remote copy look like the game?
+  boolean sameLooks(RemoteBoard remote, Game game) {
+    for (int index = 0; index < game.board.size(); index++) {
+      if (remote.looks[index] != game.diff.lookOf(index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  //tests for Game.play
+  void testBatchMoves(Tester t) {
+    Game single = new Game(16, 30, 99, new Random(9), true, Game.PLACE_SAFE_AREA);
+    Game batch = new Game(16, 30, 99, new Random(9), true, Game.PLACE_SAFE_AREA);
+    t.checkExpect(batch.encodeMove(MoveJournal.RIGHT, 1, 2), 32 << 2 | MoveJournal.RIGHT);
+    t.checkException(new IllegalArgumentException("the move is not on the board"),
+        batch, "encodeMove", MoveJournal.LEFT, 16, 0);
+    
+    //the same moves one call at a time and in one batch end the same way
+    Random random = new Random(4);
+    int[] moves = new int[400];
+    moves[0] = batch.encodeMove(MoveJournal.LEFT, 8, 15);
+    for (int k = 1; k < moves.length; k++) {
+      int kind = random.nextInt(4) == 0 ? MoveJournal.RIGHT : MoveJournal.LEFT;
+      moves[k] = batch.encodeMove(kind, random.nextInt(16), random.nextInt(30));
+    }
+    int made = 0;
+    while (made < moves.length && !single.gameOver) {
+      int index = moves[made] >>> 2;
+      if ((moves[made] & 3) == MoveJournal.LEFT) {
+        single.leftClick(index / 30, index % 30);
+      }
+      else {
+        single.rightClick(index / 30, index % 30);
+      }
+      made++;
+    }
+    RemoteBoard remote = new RemoteBoard(16, 30);
+    t.checkExpect(batch.play(moves), made);
+    t.checkExpect(batch.gameOver, true);
+    t.checkExpect(this.sameCells(single, batch), true);
+    t.checkExpect(batch.clickCount, single.clickCount);
+    t.checkExpect(batch.flagCount, single.flagCount);
+    t.checkExpect(batch.gameWon, single.gameWon);
+    //the whole batch comes out as one diff
+    remote.apply(batch.diff.toBuffer());
+    t.checkExpect(this.sameLooks(remote, batch), true);
+    t.checkExpect(remote.clickCount, batch.clickCount);
+    
+    //a finished game ignores the batch's first click and stops there
+    t.checkExpect(batch.play(moves, 1, 10), 1);
+    t.checkExpect(batch.diff.isEmpty(), true);
+    
+    //a reset starts over partway through, and moves off the board are ignored
+    int[] restart = {MoveJournal.RESET, 16 * 30 << 2 | MoveJournal.LEFT,
+        batch.encodeMove(MoveJournal.RIGHT, 0, 0)};
+    t.checkExpect(batch.play(restart), 3);
+    t.checkExpect(batch.gameOver, false);
+    t.checkExpect(batch.clickCount, 0);
+    t.checkExpect(batch.board.isFlagged(0), true);
+    remote.apply(batch.diff.toBuffer());
+    t.checkExpect(this.sameLooks(remote, batch), true);
+    t.checkExpect(remote.flagCount, 1);
+    
+    //the journal replays through play and still rebuilds every move
+    Game played = new Game(9, 9, 10, new Random(2), true, Game.PLACE_SAFE_CELL);
+    MoveJournal journal = new MoveJournal(played, 5);
+    Random clicks = new Random(6);
+    for (int k = 0; k < 60; k++) {
+      if (played.gameOver) {
+        played.resetGame();
+      }
+      else {
+        played.leftClick(clicks.nextInt(9), clicks.nextInt(9));
+      }
+    }
+    Game replayed = journal.seek(journal.moves);
+    t.checkExpect(this.sameCells(replayed, played), true);
+    t.checkExpect(replayed.clickCount, played.clickCount);
+  }
+  
+  //tests for Game.chord
+  void testChord(Tester t) {
+    Game game = new Game(9, 9, 0, new Random(1));
+    game.board.setMine(0, true);
+    game.numMines = 1;
+    game.hiddenSafeCells = 80;
+    MoveJournal journal = new MoveJournal(game, 100);
+    game.leftClick(1, 1);
+    t.checkExpect(game.board.isRevealed(10), true);
+    t.checkExpect(game.revealCount, 1);
+    //a number whose flags don't add up, a hidden cell or a cell off the board
+    //does nothing, and doesn't count as a click
+    t.checkExpect(game.chord(1, 1).isEmpty(), true);
+    t.checkExpect(game.chord(5, 5).isEmpty(), true);
+    t.checkExpect(game.chord(9, 0).isEmpty(), true);
+    t.checkExpect(game.clickCount, 1);
+    
+    //with the mine flagged, a middle click opens the rest of the board in one pass
+    MineWorld world = new MineWorld(game);
+    world.onMouseClicked(new Posn(10, 50), "RightButton");
+    world.onMouseClicked(new Posn(30, 70), "MiddleButton");
+    t.checkExpect(game.diff.count, 79);
+    t.checkExpect(game.hiddenSafeCells, 0);
+    t.checkExpect(game.gameWon, true);
+    t.checkExpect(game.clickCount, 2);
+    //the chord is journaled and replays
+    t.checkExpect(journal.moves, 3);
+    Game replayed = journal.seek(3);
+    t.checkExpect(this.sameCells(replayed, game), true);
+    t.checkExpect(replayed.gameWon, true);
+    
+    //a chord reveals what left clicking each hidden neighbor would
+    Random random = new Random(7);
+    int[] neighbors = new int[8];
+    int opened = 0;
+    for (int round = 0; round < 40; round++) {
+      long seed = random.nextLong();
+      Game chorded = new Game(16, 30, 99, new Random(seed), true, Game.PLACE_SAFE_AREA);
+      Game clicked = new Game(16, 30, 99, new Random(seed), true, Game.PLACE_SAFE_AREA);
+      chorded.leftClick(8, 15);
+      clicked.leftClick(8, 15);
+      int target = this.chordTarget(chorded, neighbors, false);
+      if (chorded.gameOver || target < 0) {
+        continue;
+      }
+      int count = chorded.board.neighbors(target, neighbors);
+      for (int k = 0; k < count; k++) {
+        if (chorded.board.isMine(neighbors[k])) {
+          chorded.rightClick(neighbors[k] / 30, neighbors[k] % 30);
+          clicked.rightClick(neighbors[k] / 30, neighbors[k] % 30);
+        }
+      }
+      int[] moves = {chorded.encodeMove(MoveJournal.CHORD, target / 30, target % 30)};
+      t.checkExpect(chorded.play(moves), 1);
+      int clicks = 0;
+      for (int k = 0; k < count; k++) {
+        int neighbor = neighbors[k];
+        if (!clicked.board.isFlagged(neighbor) && !clicked.board.isRevealed(neighbor)) {
+          clicked.leftClick(neighbor / 30, neighbor % 30);
+          clicks++;
+        }
+      }
+      t.checkExpect(this.sameCells(chorded, clicked), true);
+      t.checkExpect(chorded.hiddenSafeCells, clicked.hiddenSafeCells);
+      t.checkExpect(chorded.gameWon, clicked.gameWon);
+      t.checkExpect(chorded.clickCount, clicked.clickCount - clicks + 1);
+      opened += chorded.diff.count;
+      
+      //a flag on the wrong neighbor loses the game
+      Game wrong = new Game(16, 30, 99, new Random(seed), true, Game.PLACE_SAFE_AREA);
+      wrong.leftClick(8, 15);
+      int single = this.chordTarget(wrong, neighbors, true);
+      if (single >= 0) {
+        count = wrong.board.neighbors(single, neighbors);
+        int safe = -1;
+        for (int k = 0; k < count; k++) {
+          if (!wrong.board.isMine(neighbors[k]) && !wrong.board.isRevealed(neighbors[k])) {
+            safe = neighbors[k];
+          }
+        }
+        wrong.rightClick(safe / 30, safe % 30);
+        RemoteBoard remote = new RemoteBoard(16, 30);
+        remote.apply(wrong.diff.full().toBuffer());
+        remote.apply(wrong.chord(single / 30, single % 30).toBuffer());
+        t.checkExpect(wrong.gameOver, true);
+        t.checkExpect(wrong.gameWon, false);
+        t.checkExpect(this.sameLooks(remote, wrong), true);
+        boolean minesShown = true;
+        for (int index = 0; index < wrong.board.size(); index++) {
+          minesShown &= !wrong.board.isMine(index) || wrong.board.isRevealed(index);
+        }
+        t.checkExpect(minesShown, true);
+      }
+    }
+    t.checkExpect(opened > 40, true);
+  }
+  
+  //a revealed number on the game's board with a hidden safe neighbor (and, if single
+  //is set, only one mine around it), or -1 if there isn't one
+  int chordTarget(Game game, int[] neighbors, boolean single) {
+    for (int index = 0; index < game.board.size(); index++) {
+      int mines = game.board.adjacentMines(index);
+      if (!game.board.isRevealed(index) || mines == 0 || (single && mines != 1)) {
+        continue;
+      }
+      int count = game.board.neighbors(index, neighbors);
+      for (int k = 0; k < count; k++) {
+        if (!game.board.isMine(neighbors[k]) && !game.board.isRevealed(neighbors[k])) {
+          return index;
+        }
+      }
+    }
+    return -1;
+  }
+  
+  //tests for Benchmarks and BenchmarkResult
+  void testBenchmarks(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("a benchmark needs at least one "
+        + "measured iteration of at least a millisecond"), "Benchmarks", "", 0, 0, 1L);
+    //only the benchmarks that pass the filter run, one per board size
+    Benchmarks benchmarks = new Benchmarks("cascade/game", 0, 2, 1);
+    java.util.ArrayList<BenchmarkResult> results = benchmarks.runAll();
+    t.checkExpect(results.size(), Benchmarks.SIZES.length);
+    BenchmarkResult result = results.get(0);
+    t.checkExpect(result.name, "cascade/game");
+    t.checkExpect(result.rows, 9);
+    t.checkExpect(result.ops > 0, true);
+    t.checkExpect(result.opsPerSecond() > 0, true);
+    //revealing through the game allocates nothing
+    t.checkExpect(result.bytesPerOp() < 1, true);
+    t.checkExpect(result.row().startsWith("cascade/game      9    9     0 "), true);
+    t.checkExpect(benchmarks.run("reset", 9, 9, 10, () -> 0), null);
+    
+    //the statistics of the iterations
+    BenchmarkResult made = new BenchmarkResult("made", 9, 9, 10, 2);
+    made.add(0, 100, 1000000000L, 800);
+    made.add(1, 300, 1000000000L, 0);
+    t.checkInexact(made.opsPerSecond(), 200.0, 0.001);
+    t.checkInexact(made.error(), Math.sqrt(20000), 0.001);
+    t.checkInexact(made.bytesPerOp(), 2.0, 0.001);
+    t.checkInexact(made.allocationRate(), 0.0004, 0.001);
+  }
+  
+  //tests for SessionManager, GameServer and LoadGenerator
+  void testGameServer(Tester t) {
+    SessionManager manager = new SessionManager(4, new Random(1));
+    t.checkExpect(manager.stripes.length, 4);
+    t.checkExpect(manager.execute("NEW 9 9 10"), "OK 1");
+    t.checkExpect(manager.execute("new 16 30 99"), "OK 2");
+    t.checkExpect(manager.session(1).rows, 9);
+    //the first click is safe and opens an area
+    String click = manager.execute("CLICK 1 4 4");
+    t.checkExpect(click.startsWith("OK playing ") || click.startsWith("OK won "), true);
+    t.checkExpect(Integer.parseInt(click.split(" ")[2]) > 1, true);
+    String state = manager.execute("STATE 1");
+    t.checkExpect(state.startsWith("OK " + SessionManager.status(manager.session(1)) + " 9 9 "),
+        true);
+    String cells = state.substring(state.lastIndexOf(' ') + 1);
+    t.checkExpect(cells.length(), 81);
+    //flags toggle on hidden cells
+    int cell = cells.indexOf('#');
+    t.checkExpect(manager.execute("FLAG 1 " + cell / 9 + " " + cell % 9), "OK flagged");
+    t.checkExpect(manager.execute("FLAG 1 " + cell / 9 + " " + cell % 9), "OK unflagged");
+    t.checkExpect(manager.execute("RESET 1"), "OK");
+    t.checkExpect(manager.session(1).clickCount, 0);
+    t.checkExpect(manager.execute("CLOSE 1"), "OK");
+    //bad commands get errors
+    t.checkExpect(manager.execute("CLICK 1 4 4"), "ERR no session 1");
+    t.checkExpect(manager.execute("CLOSE 1"), "ERR no session 1");
+    t.checkExpect(manager.execute("CLICK 2 x 4"), "ERR bad number");
+    t.checkExpect(manager.execute("CLICK 2 4"), "ERR CLICK takes 3 arguments");
+    t.checkExpect(manager.execute("JUMP 2"), "ERR unknown command JUMP");
+    t.checkExpect(manager.execute("NEW 0 9 10"), "ERR rows and columns must be at least 1");
+    //boards too big for the server are refused before anything is allocated
+    t.checkExpect(manager.execute("NEW 40000 40000 1"), "ERR boards can be at most 1000 by 1000");
+    t.checkExpect(manager.execute("NEW 9 1001 1"), "ERR boards can be at most 1000 by 1000");
+    SessionManager small = new SessionManager(4, new Random(1), 100, 100, 900, 2);
+    t.checkExpect(small.execute("NEW 10 100 1"), "ERR boards can have at most 900 cells");
+    //and so are games past the limit, until one is closed
+    t.checkExpect(small.execute("NEW 9 9 10"), "OK 1");
+    t.checkExpect(small.execute("NEW 9 9 100"), "ERR number of mines must be between 0 and 80");
+    t.checkExpect(small.execute("NEW 30 30 10"), "OK 2");
+    t.checkExpect(small.execute("NEW 9 9 10"), "ERR at most 2 games can be open");
+    t.checkExpect(small.execute("CLOSE 1"), "OK");
+    t.checkExpect(small.execute("NEW 9 9 10"), "OK 3");
+    
+    //games with different ids spread over the stripes
+    SessionManager striped = new SessionManager();
+    t.checkExpect(striped.stripes.length, 256);
+    java.util.HashSet<Object> used = new java.util.HashSet<Object>();
+    for (int id = 1; id <= 256; id++) {
+      used.add(striped.lockFor(id));
+    }
+    t.checkExpect(used.size() > 128, true);
+    
+    //over a socket, with several clients at once
+    try {
+      GameServer server = new GameServer(new SessionManager());
+      int port = server.start(0);
+      java.net.Socket socket = new java.net.Socket(java.net.InetAddress.getLoopbackAddress(), port);
+      java.io.PrintWriter out = new java.io.PrintWriter(socket.getOutputStream(), true);
+      java.io.BufferedReader in = new java.io.BufferedReader(
+          new java.io.InputStreamReader(socket.getInputStream()));
+      out.println("NEW 9 9 10");
+      t.checkExpect(in.readLine(), "OK 1");
+      out.println("CLICK 1 0 0");
+      t.checkExpect(in.readLine().startsWith("OK "), true);
+      out.println("QUIT");
+      t.checkExpect(in.readLine(), null);
+      socket.close();
+      
+      LoadGenerator load = new LoadGenerator(port, 8, 200, 1);
+      Histogram latency = load.run();
+      //each client also sends NEW, CLOSE and a RESET whenever its game ends
+      t.checkExpect(latency.total >= 8 * 202, true);
+      t.checkExpect(load.errors, 0L);
+      t.checkExpect(server.manager.sessions.size(), 1);
+      t.checkExpect(load.summary().contains("p99 "), true);
+      server.stop();
+      t.checkExpect(server.socket.isClosed(), true);
+    }
+    catch (java.io.IOException e) {
+      t.checkExpect(e, null);
+    }
+    catch (InterruptedException e) {
+      t.checkExpect(e, null);
+    }
+  }
+  
+  //tests for BoardArchive
+  void testBoardArchive(Tester t) {
+    try {
+      java.nio.file.Path file = java.nio.file.Files.createTempFile("minesweeper", ".archive");
+      BoardArchive.generate(file, 16, 30, 99, 3000, 9);
+      t.checkExpect(java.nio.file.Files.size(file), 32L + 3000 * 76);
+      BoardArchive archive = new BoardArchive(file);
+      t.checkExpect(archive.size(), 3000L);
+      t.checkExpect(archive.recordBytes, 76);
+      
+      //a record is the board its seed makes
+      Game game = new Game(16, 30, 99, new Random(1), true);
+      game.rand.setSeed(archive.seed(1234));
+      game.resetGame();
+      t.checkExpect(archive.seed(1234), Simulation.boardSeed(9, 1234));
+      t.checkExpect(archive.bbbv(1234), game.bbbv);
+      t.checkExpect(archive.openings(1234), game.openings);
+      boolean sameMines = true;
+      for (int cell = 0; cell < 480; cell++) {
+        sameMines = sameMines && archive.isMine(1234, cell) == game.board.isMine(cell);
+      }
+      t.checkExpect(sameMines, true);
+      t.checkExpect(archive.mineCount(2999), 99);
+      
+      //and can be loaded into a game to play
+      Game loaded = new Game(16, 30, 10, new Random(2), true, Game.PLACE_SAFE_AREA);
+      archive.loadInto(1234, loaded);
+      t.checkExpect(this.sameCells(loaded, game), true);
+      t.checkExpect(loaded.bbbv, game.bbbv);
+      t.checkExpect(loaded.hiddenSafeCells, 381);
+      loaded.leftClick(0, 0);
+      t.checkExpect(loaded.clickCount, 1);
+      
+      //scans measure every board, the same on any number of threads
+      Histogram mines = archive.scan((board, record) -> board.mineCount(record), 4);
+      t.checkExpect(mines.total, 3000L);
+      t.checkExpect(mines.counts[99], 3000L);
+      Histogram single = archive.scan((board, record) -> board.bbbv(record), 1);
+      Histogram several = archive.scan((board, record) -> board.bbbv(record), 4);
+      t.checkExpect(single, several);
+      t.checkExpect(single.mean() > 100, true);
+      
+      //damaged headers are rejected: a negative count, no rows, or too many mines
+      int[][] damaged = {{16, 30, 99, -1}, {0, 30, 99, 0}, {16, 30, 480, 0}};
+      for (int[] header : damaged) {
+        java.nio.ByteBuffer bytes = java.nio.ByteBuffer.allocate(32);
+        bytes.putInt(BoardArchive.MAGIC).putInt(BoardArchive.VERSION);
+        bytes.putInt(header[0]).putInt(header[1]).putInt(header[2]);
+        bytes.putInt(BoardArchive.recordBytes(header[0], header[1])).putLong(header[3]);
+        java.nio.file.Files.write(file, bytes.array());
+        t.checkConstructorException(new IllegalArgumentException("the board archive is damaged"),
+            "BoardArchive", file);
+      }
+      
+      //other files are rejected
+      java.nio.file.Files.write(file, new byte[40]);
+      t.checkConstructorException(new IllegalArgumentException("not a board archive"),
+          "BoardArchive", file);
+      java.nio.file.Files.delete(file);
+    }
+    catch (java.io.IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+  
+  //tests for MoveJournal
+  void testMoveJournal(Tester t) {
+    Game game = new Game(16, 30, 99, new Random(1), true, Game.PLACE_SAFE_AREA);
+    MoveJournal journal = new MoveJournal(game, 16);
+    t.checkExpect(game.journal, journal);
+    t.checkExpect(journal.checkpoints.size(), 1);
+    
+    //a session of random clicks, flags and resets, keeping a snapshot after every move
+    Random rand = new Random(2);
+    ArrayList<ByteBuffer> states = new ArrayList<ByteBuffer>();
+    states.add(this.cellsOf(game));
+    while (journal.moves < 200) {
+      int before = journal.moves;
+      int choice = rand.nextInt(10);
+      if (choice == 0 || game.gameOver) {
+        game.resetGame();
+      }
+      else if (choice < 3) {
+        game.rightClick(rand.nextInt(16), rand.nextInt(30));
+      }
+      else {
+        game.leftClick(rand.nextInt(16), rand.nextInt(30));
+      }
+      if (journal.moves > before) {
+        states.add(this.cellsOf(game));
+      }
+    }
+    t.checkExpect(journal.checkpoints.size(), 1 + 200 / 16);
+    //moves take a few bytes each
+    t.checkExpect(journal.length <= 200 * 4, true);
+    
+    //every move can be sought, and matches the game as it was
+    boolean matches = true;
+    Game reuse = null;
+    for (int move = 0; move <= 200; move++) {
+      reuse = journal.seek(move, reuse);
+      matches = matches && this.cellsOf(reuse).equals(states.get(move));
+    }
+    t.checkExpect(matches, true);
+    
+    //the reader walks the moves in order
+    JournalReader reader = journal.reader();
+    int count = 0;
+    boolean inRange = true;
+    while (reader.next()) {
+      count++;
+      inRange = inRange && reader.index >= 0 && reader.index < 480 && reader.kind <= 2;
+    }
+    t.checkExpect(count, 200);
+    t.checkExpect(inRange, true);
+    
+    //a written journal reads back the same
+    ByteBuffer buffer = ByteBuffer.allocate(journal.size());
+    journal.write(buffer);
+    t.checkExpect(buffer.remaining(), 0);
+    buffer.flip();
+    MoveJournal copy = MoveJournal.read(buffer);
+    t.checkExpect(copy.moves, 200);
+    t.checkExpect(this.cellsOf(copy.seek(137)), states.get(137));
+    
+    //damaged journals are refused before anything is allocated for them: a bad move
+    //count, log length or checkpoint count, a first checkpoint not at the start,
+    //checkpoints out of order or past the end, a bad snapshot size, or missing bytes
+    int first = 24 + journal.length;
+    t.checkExpect(journal.checkpoints.get(0).snapshot.length, 220);
+    int[][] damaged = {{12, -1}, {16, -1}, {16, Integer.MAX_VALUE}, {20, 0}, {20, -1},
+        {20, Integer.MAX_VALUE}, {first, 5}, {first + 4, 1}, {first + 12 + 220, 300},
+        {first + 12 + 220 + 4, -1}, {first + 12 + 220 + 4, journal.length + 1},
+        {first + 8, -1}, {first + 8, Integer.MAX_VALUE}};
+    MoveJournal reading = new MoveJournal(1);
+    for (int[] change : damaged) {
+      ByteBuffer bytes = ByteBuffer.allocate(journal.size());
+      journal.write(bytes);
+      bytes.putInt(change[0], change[1]);
+      bytes.flip();
+      t.checkException(new IllegalArgumentException("the move journal is damaged"),
+          reading, "read", bytes);
+    }
+    ByteBuffer cut = ByteBuffer.allocate(journal.size());
+    journal.write(cut);
+    cut.flip();
+    cut.limit(journal.size() - journal.checkpoints.get(12).snapshot.length - 1);
+    t.checkException(new IllegalArgumentException("the move journal is damaged"),
+        reading, "read", cut);
+
+    //resets that take a pooled board are checkpointed, since the pool picked the mines
+    Game pooled = new Game(9, 9, 10, new Random(3));
+    MoveJournal pooledJournal = new MoveJournal(pooled, 1000);
+    pooled.startPool(1);
+    this.waitForBoards(pooled.pool, 1);
+    pooled.resetGame();
+    pooled.stopPool();
+    pooled.leftClick(4, 4);
+    t.checkExpect(pooledJournal.checkpoints.size(), 2);
+    t.checkExpect(this.cellsOf(pooledJournal.seek(2)), this.cellsOf(pooled));
+    
+    //starting a pool before a deferred game's first click doesn't change its mines
+    Game deferred = new Game(16, 30, 99, new Random(8), true, Game.PLACE_SAFE_AREA);
+    MoveJournal deferredJournal = new MoveJournal(deferred, 1000);
+    long draws = deferred.rand.draws;
+    deferred.startPool(2);
+    t.checkExpect(deferred.rand.draws, draws);
+    deferred.leftClick(8, 15);
+    deferred.stopPool();
+    t.checkExpect(this.cellsOf(deferredJournal.seek(1)), this.cellsOf(deferred));
+    
+    t.checkException(new IllegalArgumentException("move 201 is not between 0 and 200"),
+        journal, "seek", 201);
+    //a game recording its own moves can't be replayed into
+    t.checkException(new IllegalArgumentException("a game with a journal can't be reused to seek"),
+        journal, "seek", 10, deferred);
+  }
+  
+  //the game's cells and counters, without touching its random
+  ByteBuffer cellsOf(Game game) {
+    ByteBuffer buffer = ByteBuffer.allocate(game.board.size() + 20);
+    for (int index = 0; index < game.board.size(); index++) {
+      buffer.put((byte) ((game.board.isMine(index) ? 1 : 0)
+          | (game.board.isRevealed(index) ? 2 : 0) | (game.board.isFlagged(index) ? 4 : 0)));
+    }
+    buffer.putInt(game.clickCount);
+    buffer.putInt(game.flagCount);
+    buffer.putInt(game.hiddenSafeCells);
+    buffer.putInt(game.gameOver ? 1 : 0);
+    buffer.putInt(game.gameWon ? 1 : 0);
+    buffer.flip();
+    return buffer;
+  }
+  
+  //tests that a MineWorld restarts from its game's pool
+  void testWorldPool(Tester t) {
+    //a world only gets a pool once it is started (bigBang does it)
+    MineWorld world = new MineWorld(16, 30, 99);
+    t.checkExpect(world.game.pool, null);
+    world.startPool();
+    t.checkExpect(world.game.pool != null, true);
+    t.checkExpect(world.game.pool.ready.remainingCapacity() + world.game.pool.ready.size(),
+        MineWorld.POOL_BOARDS);
+    this.waitForBoards(world.game.pool, 1);
+    //'r' only restarts a finished game, and then takes a ready board
+    world.onKeyEvent("r");
+    t.checkExpect(world.game.pool.hits, 0L);
+    world.game.gameOver = true;
+    IBoard before = world.game.board;
+    world.onKeyEvent("r");
+    t.checkExpect(world.game.pool.hits, 1L);
+    t.checkExpect(world.game.board != before, true);
+    t.checkExpect(world.game.gameOver, false);
+    //a world made around a game leaves that game alone
+    Game game = new Game(9, 9, 10, new Random(1));
+    MineWorld around = new MineWorld(game);
+    t.checkExpect(game.pool, null);
+    t.checkExpect(around.game, game);
+    //the pool stops when the world ends
+    BoardPool pool = world.game.pool;
+    world.lastScene("bye");
+    t.checkExpect(world.game.pool, null);
+    this.waitForThread(pool.thread);
+    t.checkExpect(pool.thread.isAlive(), false);
+  }
+  
+  //tests for the BoardPool
+  void testBoardPool(Tester t) {
+    Game game = new Game(16, 30, 99, new Random(1), true);
+    //without a pool every reset clears the same board
+    IBoard before = game.board;
+    game.resetGame();
+    t.checkExpect(game.board, before);
+    
+    //with one, resets take ready boards and count the hits
+    game.startPool(2);
+    this.waitForBoards(game.pool, 2);
+    t.checkExpect(game.pool.ready.size(), 2);
+    IBoard ready = game.pool.ready.peek().board;
+    game.leftClick(0, 0);
+    game.rightClick(5, 5);
+    game.resetGame();
+    t.checkExpect(game.board, ready);
+    t.checkExpect(game.pool.hits, 1L);
+    t.checkExpect(game.clickCount, 0);
+    t.checkExpect(game.flagCount, 0);
+    t.checkExpect(game.fullRedraw, true);
+    t.checkExpect(game.hiddenSafeCells, 480 - 99);
+    //the swapped in board is fresh, measured, and has all its mines
+    int mines = 0;
+    boolean hidden = true;
+    for (int index = 0; index < 480; index++) {
+      mines += game.board.isMine(index) ? 1 : 0;
+      hidden = hidden && !game.board.isRevealed(index) && !game.board.isFlagged(index);
+    }
+    t.checkExpect(mines, 99);
+    t.checkExpect(hidden, true);
+    int bbbv = game.bbbv;
+    game.measureBoard();
+    t.checkExpect(game.bbbv, bbbv);
+    
+    //the pool never runs more than its capacity ahead
+    this.waitForBoards(game.pool, 2);
+    t.checkExpect(game.pool.ready.size(), 2);
+    
+    //a reset with nothing ready builds the board itself and counts a miss
+    game.pool.ready.clear();
+    game.pool.thread.interrupt();
+    this.waitForThread(game.pool.thread);
+    game.pool.ready.clear();
+    game.resetGame();
+    t.checkExpect(game.pool.misses, 1L);
+    t.checkInexact(game.pool.hitRate(), 0.5, 0.000001);
+    
+    //a classic game gets its grid along with the board
+    Game classicGame = new Game(9, 9, 10, new Random(2));
+    classicGame.startPool(1);
+    this.waitForBoards(classicGame.pool, 1);
+    classicGame.resetGame();
+    t.checkExpect(classicGame.grid.get(0).get(0), ((CellBoard) classicGame.board).cells[0]);
+    //deferred placement gets empty boards
+    Game safeGame = new Game(9, 9, 10, new Random(3), false, Game.PLACE_SAFE_AREA);
+    safeGame.startPool(1);
+    this.waitForBoards(safeGame.pool, 1);
+    safeGame.resetGame();
+    t.checkExpect(safeGame.minesPlaced, false);
+    safeGame.leftClick(4, 4);
+    t.checkExpect(safeGame.board.adjacentMines(40), 0);
+    
+    classicGame.stopPool();
+    safeGame.stopPool();
+    game.stopPool();
+    t.checkExpect(game.pool, null);
+    t.checkConstructorException(new IllegalArgumentException("a pool must hold at least 1 board"),
+        "BoardPool", classicGame, 0);
+  }
+  
+  //waits until a pool has the given number of boards ready
+  void waitForBoards(BoardPool pool, int count) {
+    while (pool.ready.size() < count) {
+      Thread.yield();
+    }
+  }
+  
+  //waits until a thread has finished
+  void waitForThread(Thread thread) {
+    try {
+      thread.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  //tests for the Simulation
+  void testSimulation(Tester t) {
+    //board seeds are spread out and depend only on the master seed and board number
+    t.checkExpect(Simulation.boardSeed(1, 0), Simulation.boardSeed(1, 0));
+    t.checkExpect(Simulation.boardSeed(1, 0) != Simulation.boardSeed(1, 1), true);
+    t.checkExpect(Simulation.boardSeed(1, 0) != Simulation.boardSeed(2, 0), true);
+    
+    //the same master seed gives the same statistics on any number of threads
+    Simulation single = new Simulation(9, 9, 10, false, Game.PLACE_SAFE_AREA, 1000, 7, 1);
+    single.chunkSize = 64;
+    Simulation several = new Simulation(9, 9, 10, false, Game.PLACE_SAFE_AREA, 1000, 7, 4);
+    several.chunkSize = 64;
+    SimulationResult singleResult = single.run();
+    SimulationResult severalResult = several.run();
+    t.checkExpect(singleResult.games, 1000L);
+    t.checkExpect(singleResult.clicks.total, 1000L);
+    t.checkExpect(singleResult.bbbv.total, 1000L);
+    t.checkExpect(singleResult.bbbv.mean() > singleResult.openings.mean(), true);
+    t.checkExpect(singleResult.efficiency() > 0, true);
+    t.checkExpect(singleResult.sameStatistics(severalResult), true);
+    t.checkExpect(singleResult.winRate() > 0.75, true);
+    //and a different seed gives different boards
+    Simulation other = new Simulation(9, 9, 10, false, Game.PLACE_SAFE_AREA, 1000, 8, 4);
+    t.checkExpect(singleResult.sameStatistics(other.run()), false);
+    
+    //bad configurations fail before anything is played
+    t.checkConstructorException(new IllegalArgumentException("threads must be at least 1"),
+        "Simulation", 10, 1L, 0);
+    
+    //histograms
+    Histogram histogram = new Histogram();
+    histogram.add(1);
+    histogram.add(3);
+    histogram.add(40);
+    t.checkExpect(histogram.total, 3L);
+    t.checkInexact(histogram.mean(), 44.0 / 3, 0.000001);
+    t.checkExpect(histogram.percentile(0.5), 3);
+    t.checkExpect(histogram.percentile(1.0), 40);
+    Histogram more = new Histogram();
+    more.add(3);
+    histogram.merge(more);
+    t.checkExpect(histogram.counts[3], 2L);
+    t.checkExpect(histogram.total, 4L);
+    t.checkException(new IllegalArgumentException("a histogram only holds values of 0 or more"),
+        histogram, "add", -1);
+  }
+  
+  //the chance of a mine on each cell of a board of at most 16 cells, found by
+  //checking every layout of the mines against the revealed numbers
+  double[] bruteForceProbability(Game game) {
+    int size = game.board.size();
+    int[] neighbors = new int[8];
+    double[] mines = new double[size];
+    double layouts = 0;
+    for (int layout = 0; layout < (1 << size); layout++) {
+      if (Integer.bitCount(layout) != game.numMines) {
+        continue;
+      }
+      boolean fits = true;
+      for (int index = 0; index < size && fits; index++) {
+        if (game.board.isRevealed(index)) {
+          int count = game.board.neighbors(index, neighbors);
+          int around = 0;
+          for (int k = 0; k < count; k++) {
+            around += (layout >> neighbors[k]) & 1;
+          }
+          fits = (layout >> index & 1) == 0 && around == game.board.adjacentMines(index);
+        }
+      }
+      if (fits) {
+        layouts++;
+        for (int index = 0; index < size; index++) {
+          mines[index] += (layout >> index) & 1;
+        }
+      }
+    }
+    for (int index = 0; index < size; index++) {
+      mines[index] /= layouts;
+    }
+    return mines;
+  }
+  
+  //test the packed board's state bits and adjacency counts
+  void testPackedBoard(Tester t) {
+    PackedBoard board = new PackedBoard(9, 9);
+    t.checkExpect(board.size(), 81);
+    t.checkExpect(board.isMine(40), false);
+    t.checkExpect(board.adjacentMines(41), 0);
+    
+    //placing a mine bumps the count of every neighbor
+    board.setMine(40, true);
+    t.checkExpect(board.isMine(40), true);
+    t.checkExpect(board.adjacentMines(31), 1);
+    t.checkExpect(board.adjacentMines(49), 1);
+    t.checkExpect(board.adjacentMines(40), 0);
+    t.checkExpect(board.adjacentMines(42), 0);
+    
+    //placing the same mine twice doesn't count twice
+    board.setMine(40, true);
+    t.checkExpect(board.adjacentMines(41), 1);
+    board.setMine(50, true);
+    t.checkExpect(board.adjacentMines(41), 2);
+    t.checkExpect(board.adjacentMines(40), 1);
+    
+    //removing a mine takes the counts back down
+    board.setMine(40, false);
+    t.checkExpect(board.adjacentMines(41), 1);
+    t.checkExpect(board.adjacentMines(31), 0);
+    
+    //the flags don't disturb each other or the count
+    board.setFlagged(41, true);
+    board.setRevealed(41, true);
+    t.checkExpect(board.isFlagged(41), true);
+    t.checkExpect(board.isRevealed(41), true);
+    t.checkExpect(board.adjacentMines(41), 1);
+    board.setFlagged(41, false);
+    t.checkExpect(board.isFlagged(41), false);
+    t.checkExpect(board.isRevealed(41), true);
+    
+    //neighbors of a corner, an edge and a center cell
+    int[] out = new int[8];
+    t.checkExpect(board.neighbors(0, out), 3);
+    t.checkExpect(board.neighbors(4, out), 5);
+    t.checkExpect(board.neighbors(40, out), 8);
+  }
+  
+  //test playing a game on the packed board
+  void testPackedGame(Tester t) {
+    Game packedGame = new Game(9, 9, 5, new Random(100), true);
+    t.checkExpect(packedGame.grid, null);
+    
+    //count mines placed
+    int totalMines = 0;
+    for (int index = 0; index < 81; index++) {
+      if (packedGame.board.isMine(index)) {
+        totalMines++;
+      }
+    }
+    t.checkExpect(totalMines, 5);
+    
+    //right click flags and unflags
+    packedGame.rightClick(0, 0);
+    t.checkExpect(packedGame.board.isFlagged(0), true);
+    packedGame.rightClick(0, 0);
+    t.checkExpect(packedGame.board.isFlagged(0), false);
+    
+    //clicking an empty board reveals everything and wins
+    Game emptyGame = new Game(9, 9, 0, new Random(5), true);
+    emptyGame.leftClick(4, 4);
+    t.checkExpect(emptyGame.board.isRevealed(0), true);
+    t.checkExpect(emptyGame.board.isRevealed(80), true);
+    t.checkExpect(emptyGame.gameWon, true);
+    t.checkExpect(emptyGame.gameOver, true);
+    
+    //revealed cells can't be flagged
+    emptyGame.gameOver = false;
+    emptyGame.rightClick(4, 4);
+    t.checkExpect(emptyGame.board.isFlagged(40), false);
+    
+    //clicking a mine loses and reveals every mine
+    Game mineGame = new Game(9, 9, 3, new Random(10), true);
+    int mine = 0;
+    while (!mineGame.board.isMine(mine)) {
+      mine++;
+    }
+    mineGame.leftClick(mine / 9, mine % 9);
+    t.checkExpect(mineGame.gameOver, true);
+    t.checkExpect(mineGame.gameWon, false);
+    for (int index = 0; index < 81; index++) {
+      if (mineGame.board.isMine(index)) {
+        t.checkExpect(mineGame.board.isRevealed(index), true);
+      }
+    }
+    
+    //the packed game draws like the classic one
+    MineWorld packedWorld = new MineWorld(packedGame);
+    WorldScene packedScene = packedWorld.makeScene();
+    t.checkExpect(packedScene.width, 9 * 20);
+    t.checkExpect(packedScene.height, 9 * 20 + 40);
+    
+    //resetting keeps the packed representation
+    packedGame.resetGame();
+    t.checkExpect(packedGame.grid, null);
+    t.checkExpect(packedGame.board instanceof PackedBoard, true);
+  }
+  
   //run the game!!
   void testBigBang(Tester t) {
     MineWorld world = new MineWorld(15, 15, 10);
@@ -0,0 +1,456 @@
+//Assignment 9: MINESWEEPER (game server)
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//owns any number of games, each known by a session id, and runs commands on them.
+//the sessions live in a concurrent map, and each game is only ever touched while
+//holding one of a fixed set of locks chosen by its id (lock striping): commands on
+//the same game run one at a time, and commands on unrelated games only wait on each
+//other when their ids share a stripe.
+//commands are lines of words, and every answer is one line starting with OK or ERR:
+//  NEW rows cols mines   -> OK id           (a packed board with a safe first click)
+//                           boards and sessions are limited (see the constructor), so
+//                           no client can make the server allocate more than it can hold
+//  CLICK id row col      -> OK status revealed   (status is playing, won or lost)
+//  FLAG id row col       -> OK flagged|unflagged
+//  RESET id              -> OK
+//  STATE id              -> OK status rows cols cells   (see describe)
+//  CLOSE id              -> OK
+class SessionManager {
+  ConcurrentHashMap<Integer, Game> sessions;
+  Object[] stripes;
+  int stripeMask;
+  AtomicInteger nextId;
+  Random seeds;
+  //the biggest board a client can ask for, and how many games can be open at once
+  int maxRows;
+  int maxCols;
+  int maxCells;
+  int maxSessions;
+  AtomicInteger open;
+  
+  //constructor, with 256 lock stripes
+  SessionManager() {
+    this(256, new Random());
+  }
+  
+  //constructor, with the given number of lock stripes (rounded up to a power of 2)
+  //and a random for seeding each new game, allowing boards of up to 1000 by 1000
+  //and a million cells, and up to 10000 open games
+  SessionManager(int stripes, Random seeds) {
+    this(stripes, seeds, 1000, 1000, 1000000, 10000);
+  }
+  
+  //constructor, with the given limits on boards and open games
+  SessionManager(int stripes, Random seeds, int maxRows, int maxCols, int maxCells,
+      int maxSessions) {
+    int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+    this.stripes = new Object[size];
+    for (int k = 0; k < size; k++) {
+      this.stripes[k] = new Object();
+    }
+    this.stripeMask = size - 1;
+    this.sessions = new ConcurrentHashMap<Integer, Game>();
+    this.nextId = new AtomicInteger();
+    this.seeds = seeds;
+    this.maxRows = maxRows;
+    this.maxCols = maxCols;
+    this.maxCells = maxCells;
+    this.maxSessions = maxSessions;
+    this.open = new AtomicInteger();
+  }
+  
+  //the lock that guards the game with the given id
+  Object lockFor(int id) {
+    //spreads sequential ids over the stripes
+    return this.stripes[(id * 0x9E3779B9 >>> 16) & this.stripeMask];
+  }
+  
+  //starts a new game, returns its id
+  int create(int rows, int cols, int mines) {
+    if (rows > this.maxRows || cols > this.maxCols) {
+      throw new IllegalArgumentException("boards can be at most " + this.maxRows + " by "
+          + this.maxCols);
+    }
+    if ((long) rows * cols > this.maxCells) {
+      throw new IllegalArgumentException("boards can have at most " + this.maxCells + " cells");
+    }
+    if (this.open.incrementAndGet() > this.maxSessions) {
+      this.open.decrementAndGet();
+      throw new IllegalArgumentException("at most " + this.maxSessions + " games can be open");
+    }
+    Game game;
+    try {
+      long seed;
+      synchronized (this.seeds) {
+        seed = this.seeds.nextLong();
+      }
+      game = new Game(rows, cols, mines, new Random(seed), true, Game.PLACE_SAFE_AREA);
+    }
+    catch (IllegalArgumentException e) {
+      this.open.decrementAndGet();
+      throw e;
+    }
+    int id = this.nextId.incrementAndGet();
+    this.sessions.put(id, game);
+    return id;
+  }
+  
+  //the game with the given id
+  Game session(int id) {
+    Game game = this.sessions.get(id);
+    if (game == null) {
+      throw new IllegalArgumentException("no session " + id);
+    }
+    return game;
+  }
+  
+  //runs one command line, returns the answer line
+  String execute(String line) {
+    String[] words = line.trim().split(" ");
+    try {
+      switch (words[0].toUpperCase()) {
+        case "NEW":
+          this.expectWords(words, 4);
+          return "OK " + this.create(Integer.parseInt(words[1]), Integer.parseInt(words[2]),
+              Integer.parseInt(words[3]));
+        case "CLICK":
+          this.expectWords(words, 4);
+          return this.click(Integer.parseInt(words[1]), Integer.parseInt(words[2]),
+              Integer.parseInt(words[3]));
+        case "FLAG":
+          this.expectWords(words, 4);
+          return this.flag(Integer.parseInt(words[1]), Integer.parseInt(words[2]),
+              Integer.parseInt(words[3]));
+        case "RESET":
+          this.expectWords(words, 2);
+          return this.reset(Integer.parseInt(words[1]));
+        case "STATE":
+          this.expectWords(words, 2);
+          return this.state(Integer.parseInt(words[1]));
+        case "CLOSE":
+          this.expectWords(words, 2);
+          return this.close(Integer.parseInt(words[1]));
+        default:
+          return "ERR unknown command " + words[0];
+      }
+    }
+    catch (NumberFormatException e) {
+      return "ERR bad number";
+    }
+    catch (IllegalArgumentException e) {
+      return "ERR " + e.getMessage();
+    }
+  }
+  
+  //checks a command has the right number of words
+  void expectWords(String[] words, int count) {
+    if (words.length != count) {
+      throw new IllegalArgumentException(words[0] + " takes " + (count - 1) + " arguments");
+    }
+  }
+  
+  //left clicks a cell of a game
+  String click(int id, int row, int col) {
+    Game game = this.session(id);
+    synchronized (this.lockFor(id)) {
+      if (!game.gameOver) {
+        game.revealCount = 0;
+        game.leftClick(row, col);
+      }
+      return "OK " + status(game) + " " + game.revealCount;
+    }
+  }
+  
+  //right clicks a cell of a game
+  String flag(int id, int row, int col) {
+    Game game = this.session(id);
+    synchronized (this.lockFor(id)) {
+      game.rightClick(row, col);
+      boolean flagged = row >= 0 && row < game.rows && col >= 0 && col < game.cols
+          && game.board.isFlagged(row * game.cols + col);
+      return flagged ? "OK flagged" : "OK unflagged";
+    }
+  }
+  
+  //starts a game over
+  String reset(int id) {
+    Game game = this.session(id);
+    synchronized (this.lockFor(id)) {
+      game.resetGame();
+      return "OK";
+    }
+  }
+  
+  //describes a whole game
+  String state(int id) {
+    Game game = this.session(id);
+    synchronized (this.lockFor(id)) {
+      return "OK " + status(game) + " " + game.rows + " " + game.cols + " " + describe(game);
+    }
+  }
+  
+  //ends a game
+  String close(int id) {
+    if (this.sessions.remove(id) == null) {
+      throw new IllegalArgumentException("no session " + id);
+    }
+    this.open.decrementAndGet();
+    return "OK";
+  }
+  
+  //playing, won or lost
+  static String status(Game game) {
+    return !game.gameOver ? "playing" : game.gameWon ? "won" : "lost";
+  }
+  
+  //the board as one character per cell, row by row: # hidden, F flagged,
+  //* a revealed mine, or the number of a revealed cell
+  static String describe(Game game) {
+    IBoard board = game.board;
+    char[] cells = new char[board.size()];
+    for (int index = 0; index < cells.length; index++) {
+      if (board.isRevealed(index)) {
+        cells[index] = board.isMine(index) ? '*' : (char) ('0' + board.adjacentMines(index));
+      }
+      else {
+        cells[index] = board.isFlagged(index) ? 'F' : '#';
+      }
+    }
+    return new String(cells);
+  }
+  
+}
+
+//serves a SessionManager over TCP: every connection sends command lines and gets an
+//answer line for each, handled on its own thread from a pool (a cached pool of
+//platform threads, so each blocked connection costs a thread but no polling)
+class GameServer {
+  SessionManager manager;
+  ServerSocket socket;
+  ExecutorService threads;
+  Set<Socket> connections;
+  
+  //constructor
+  GameServer(SessionManager manager) {
+    this.manager = manager;
+    this.connections = ConcurrentHashMap.newKeySet();
+  }
+  
+  //starts listening on the given port of the loopback address (0 for any free
+  //port), returns the port
+  int start(int port) throws IOException {
+    this.socket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+    this.threads = Executors.newCachedThreadPool(task -> {
+      Thread thread = new Thread(task, "game server");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.threads.execute(this::acceptAll);
+    return this.socket.getLocalPort();
+  }
+  
+  //accepts connections until the server stops
+  void acceptAll() {
+    try {
+      while (!this.socket.isClosed()) {
+        Socket connection = this.socket.accept();
+        connection.setTcpNoDelay(true);
+        this.connections.add(connection);
+        this.threads.execute(() -> this.serve(connection));
+      }
+    }
+    catch (IOException e) {
+      //the server socket was closed
+    }
+  }
+  
+  //answers one connection's commands until it closes
+  void serve(Socket connection) {
+    try (Socket open = connection;
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            open.getInputStream(), StandardCharsets.US_ASCII));
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+            open.getOutputStream(), StandardCharsets.US_ASCII))) {
+      String line = in.readLine();
+      while (line != null && !line.equalsIgnoreCase("QUIT")) {
+        out.write(this.manager.execute(line));
+        out.write('\n');
+        //only flush once every command that has arrived is answered
+        if (!in.ready()) {
+          out.flush();
+        }
+        line = in.readLine();
+      }
+    }
+    catch (IOException e) {
+      //the client went away
+    }
+    finally {
+      this.connections.remove(connection);
+    }
+  }
+  
+  //stops listening and closes every connection
+  void stop() throws IOException {
+    this.socket.close();
+    for (Socket connection : this.connections) {
+      connection.close();
+    }
+    this.threads.shutdownNow();
+  }
+  
+  //runs a server until the process is stopped,
+  //usage: java GameServer [port]
+  public static void main(String[] args) throws IOException, InterruptedException {
+    GameServer server = new GameServer(new SessionManager());
+    int port = server.start(args.length > 0 ? Integer.parseInt(args[0]) : 7070);
+    System.out.println("serving games on port " + port);
+    Thread.currentThread().join();
+  }
+  
+}
+
+//drives a GameServer with many clients at once and measures the latency of every
+//command: each client opens its own connection and session, then clicks random
+//cells one command at a time, starting the game over whenever it ends
+class LoadGenerator {
+  int port;
+  int clients;
+  int requests;
+  long seed;
+  //what the last run measured: latency in microseconds, failed commands, wall time
+  Histogram latency;
+  long errors;
+  long nanos;
+  
+  //constructor, for the given number of clients each sending the given number of commands
+  LoadGenerator(int port, int clients, int requests, long seed) {
+    this.port = port;
+    this.clients = clients;
+    this.requests = requests;
+    this.seed = seed;
+  }
+  
+  //runs every client and waits for them all, returns the latency histogram
+  Histogram run() throws InterruptedException {
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    ArrayList<LoadClient> workers = new ArrayList<LoadClient>();
+    long start = System.nanoTime();
+    for (int k = 0; k < this.clients; k++) {
+      LoadClient client = new LoadClient(this.port, this.requests, this.seed + k);
+      Thread thread = new Thread(client, "load client " + k);
+      workers.add(client);
+      threads.add(thread);
+      thread.start();
+    }
+    this.latency = new Histogram();
+    this.errors = 0;
+    for (int k = 0; k < this.clients; k++) {
+      threads.get(k).join();
+      this.latency.merge(workers.get(k).latency);
+      this.errors += workers.get(k).errors;
+    }
+    this.nanos = System.nanoTime() - start;
+    return this.latency;
+  }
+  
+  //a summary of the last run
+  String summary() {
+    return this.latency.total + " requests from " + this.clients + " clients, "
+        + String.format("%.0f", this.latency.total / (this.nanos / 1e9)) + " requests/second, "
+        + this.errors + " errors, latency us p50 " + this.latency.percentile(0.5)
+        + ", p90 " + this.latency.percentile(0.9) + ", p99 " + this.latency.percentile(0.99)
+        + ", p99.9 " + this.latency.percentile(0.999) + ", max " + this.latency.percentile(1.0);
+  }
+  
+  //starts a server in this process and puts it under load,
+  //usage: java LoadGenerator [clients] [requests per client]
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int requests = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    GameServer server = new GameServer(new SessionManager());
+    int port = server.start(0);
+    LoadGenerator load = new LoadGenerator(port, clients, requests, 1);
+    load.run();
+    System.out.println(load.summary());
+    server.stop();
+  }
+  
+}
+
+//one client of a LoadGenerator
+class LoadClient implements Runnable {
+  //latencies are recorded in microseconds up to this, anything slower counts as this
+  static final int MAX_MICROS = 100000;
+  int port;
+  int requests;
+  Random rand;
+  Histogram latency;
+  long errors;
+  
+  //constructor
+  LoadClient(int port, int requests, long seed) {
+    this.port = port;
+    this.requests = requests;
+    this.rand = new Random(seed);
+    this.latency = new Histogram();
+  }
+  
+  //plays expert games through the server, timing each command
+  public void run() {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            socket.getInputStream(), StandardCharsets.US_ASCII));
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+            socket.getOutputStream(), StandardCharsets.US_ASCII))) {
+      socket.setTcpNoDelay(true);
+      String id = this.send(in, out, "NEW 16 30 99").substring(3);
+      for (int k = 0; k < this.requests; k++) {
+        String answer = this.send(in, out,
+            "CLICK " + id + " " + this.rand.nextInt(16) + " " + this.rand.nextInt(30));
+        if (!answer.startsWith("OK playing")) {
+          this.send(in, out, "RESET " + id);
+        }
+      }
+      this.send(in, out, "CLOSE " + id);
+    }
+    catch (IOException e) {
+      this.errors++;
+    }
+  }
+  
+  //sends one command and waits for its answer, recording how long it took
+  String send(BufferedReader in, Writer out, String command) throws IOException {
+    long start = System.nanoTime();
+    out.write(command);
+    out.write('\n');
+    out.flush();
+    String answer = in.readLine();
+    this.latency.add((int) Math.min(MAX_MICROS, (System.nanoTime() - start) / 1000));
+    if (answer == null) {
+      throw new IOException("the server closed the connection");
+    }
+    if (!answer.startsWith("OK")) {
+      this.errors++;
+    }
+    return answer;
+  }
+  
+}
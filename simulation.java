@@ -0,0 +1,336 @@
+//Assignment 9: MINESWEEPER (batch simulation)
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+//plays many boards of one configuration with a Solver, spread over a ForkJoinPool,
+//and collects their statistics. every board gets its own seed, worked out from the
+//master seed and the board's number alone, and boards are handed out in fixed
+//chunks that are merged back by adding up counts, so the statistics for a master
+//seed come out the same whatever the number of threads (only the times differ)
+class Simulation {
+  //the boards to play
+  int rows;
+  int cols;
+  int mines;
+  boolean packed;
+  int placement;
+  //how many boards to play, the seed they all come from, and the threads to use
+  int games;
+  long masterSeed;
+  int threads;
+  //how many boards one task plays before it hands its results back
+  int chunkSize;
+  
+  //constructor, for expert boards with a safe opening
+  Simulation(int games, long masterSeed, int threads) {
+    this(16, 30, 99, true, Game.PLACE_SAFE_AREA, games, masterSeed, threads);
+  }
+  
+  //constructor
+  Simulation(int rows, int cols, int mines, boolean packed, int placement,
+      int games, long masterSeed, int threads) {
+    if (games < 0) {
+      throw new IllegalArgumentException("games can't be negative");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1");
+    }
+    this.rows = rows;
+    this.cols = cols;
+    this.mines = mines;
+    this.packed = packed;
+    this.placement = placement;
+    this.games = games;
+    this.masterSeed = masterSeed;
+    this.threads = threads;
+    this.chunkSize = 256;
+    //builds a board up front, so a bad configuration fails here and not on a worker
+    new Game(rows, cols, mines, new Random(masterSeed), packed, placement);
+  }
+  
+  //the seed of one board: the board's number mixed into the master seed
+  //(the SplitMix64 finalizer, so nearby numbers give unrelated seeds)
+  static long boardSeed(long masterSeed, long board) {
+    long z = masterSeed + (board + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+  
+  //plays every board and returns the merged statistics
+  SimulationResult run() {
+    long start = System.nanoTime();
+    ForkJoinPool pool = new ForkJoinPool(this.threads);
+    SimulationResult result;
+    try {
+      result = pool.invoke(new SimulationTask(this, 0, this.games));
+    }
+    finally {
+      pool.shutdown();
+    }
+    result.nanos = System.nanoTime() - start;
+    return result;
+  }
+  
+  //plays the boards numbered from first up to (not including) last on the
+  //calling thread's own game
+  SimulationResult play(int first, int last) {
+    SimulationWorker worker = SimulationWorker.forThread(this);
+    SimulationResult result = new SimulationResult();
+    for (int board = first; board < last; board++) {
+      worker.game.rand.setSeed(boardSeed(this.masterSeed, board));
+      worker.game.resetGame();
+      int guesses = worker.solver.guesses;
+      boolean won = worker.solver.solve();
+      result.add(won, worker.game.clickCount, worker.solver.guesses - guesses,
+          worker.game.bbbv, worker.game.openings);
+    }
+    return result;
+  }
+  
+  //runs a simulation and prints its statistics,
+  //usage: java Simulation [games] [seed] [threads] [rows cols mines]
+  public static void main(String[] args) {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+    int threads = args.length > 2 ? Integer.parseInt(args[2])
+        : Runtime.getRuntime().availableProcessors();
+    Simulation simulation = args.length > 5
+        ? new Simulation(Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+            Integer.parseInt(args[5]), true, Game.PLACE_SAFE_AREA, games, seed, threads)
+        : new Simulation(games, seed, threads);
+    SimulationResult result = simulation.run();
+    System.out.println(result.summary());
+    System.out.println(String.format("%.0f", games / (result.nanos / 1e9))
+        + " games/second on " + threads + " threads");
+  }
+  
+}
+
+//plays a range of boards, splitting it in half until it is no bigger than a chunk.
+//the split points only depend on the range, so the same chunks are played and
+//merged the same way on any number of threads
+class SimulationTask extends RecursiveTask<SimulationResult> {
+  private static final long serialVersionUID = 1L;
+  Simulation simulation;
+  int first;
+  int last;
+  
+  //constructor
+  SimulationTask(Simulation simulation, int first, int last) {
+    this.simulation = simulation;
+    this.first = first;
+    this.last = last;
+  }
+  
+  //plays the range, or splits it and merges the halves
+  protected SimulationResult compute() {
+    if (this.last - this.first <= this.simulation.chunkSize) {
+      return this.simulation.play(this.first, this.last);
+    }
+    int middle = (this.first + this.last) >>> 1;
+    SimulationTask left = new SimulationTask(this.simulation, this.first, middle);
+    SimulationTask right = new SimulationTask(this.simulation, middle, this.last);
+    left.fork();
+    SimulationResult result = right.compute();
+    result.merge(left.join());
+    return result;
+  }
+  
+}
+
+//the game and solver one pool thread keeps for a simulation, so its boards are all
+//played on the same buffers through resetGame
+class SimulationWorker {
+  static final ThreadLocal<SimulationWorker> CURRENT = new ThreadLocal<SimulationWorker>();
+  Simulation simulation;
+  Game game;
+  Solver solver;
+  
+  //constructor
+  SimulationWorker(Simulation simulation) {
+    this.simulation = simulation;
+    this.game = new Game(simulation.rows, simulation.cols, simulation.mines,
+        new Random(simulation.masterSeed), simulation.packed, simulation.placement);
+    this.solver = new Solver(this.game);
+  }
+  
+  //the calling thread's worker for a simulation, made the first time it is asked for
+  static SimulationWorker forThread(Simulation simulation) {
+    SimulationWorker worker = CURRENT.get();
+    if (worker == null || worker.simulation != simulation) {
+      worker = new SimulationWorker(simulation);
+      CURRENT.set(worker);
+    }
+    return worker;
+  }
+  
+}
+
+//the statistics of a number of played boards
+class SimulationResult {
+  long games;
+  long wins;
+  Histogram clicks;
+  Histogram guesses;
+  Histogram bbbv;
+  Histogram openings;
+  //the 3BV of the boards that were won, and the clicks it took to win them
+  long wonBbbv;
+  long wonClicks;
+  //the wall clock time of the whole run (not part of the reproducible statistics)
+  long nanos;
+  
+  //constructor, with nothing played yet
+  SimulationResult() {
+    this.clicks = new Histogram();
+    this.guesses = new Histogram();
+    this.bbbv = new Histogram();
+    this.openings = new Histogram();
+  }
+  
+  //records one played board
+  void add(boolean won, int clicks, int guesses, int bbbv, int openings) {
+    this.games++;
+    if (won) {
+      this.wins++;
+      this.wonBbbv += bbbv;
+      this.wonClicks += clicks;
+    }
+    this.clicks.add(clicks);
+    this.guesses.add(guesses);
+    this.bbbv.add(bbbv);
+    this.openings.add(openings);
+  }
+  
+  //adds another result's statistics into this one
+  void merge(SimulationResult other) {
+    this.games += other.games;
+    this.wins += other.wins;
+    this.clicks.merge(other.clicks);
+    this.guesses.merge(other.guesses);
+    this.bbbv.merge(other.bbbv);
+    this.openings.merge(other.openings);
+    this.wonBbbv += other.wonBbbv;
+    this.wonClicks += other.wonClicks;
+  }
+  
+  //the share of boards that were won
+  double winRate() {
+    return this.games == 0 ? 0 : (double) this.wins / this.games;
+  }
+  
+  //the 3BV of the won boards over the clicks it took to win them
+  double efficiency() {
+    return this.wonClicks == 0 ? 0 : (double) this.wonBbbv / this.wonClicks;
+  }
+  
+  //are the statistics (not the times) the same as another result's?
+  boolean sameStatistics(SimulationResult other) {
+    return this.games == other.games && this.wins == other.wins
+        && this.clicks.equals(other.clicks) && this.guesses.equals(other.guesses)
+        && this.bbbv.equals(other.bbbv) && this.openings.equals(other.openings)
+        && this.wonBbbv == other.wonBbbv && this.wonClicks == other.wonClicks;
+  }
+  
+  //a summary of the statistics
+  String summary() {
+    return this.games + " games, " + String.format("%.2f", this.winRate() * 100) + "% won, "
+        + "clicks " + this.clicks.summary() + ", guesses " + this.guesses.summary()
+        + ", 3BV " + this.bbbv.summary() + ", openings " + this.openings.summary()
+        + ", efficiency " + String.format("%.2f", this.efficiency());
+  }
+  
+}
+
+//how many times each non-negative value was seen
+class Histogram {
+  long[] counts;
+  long total;
+  
+  //constructor, with nothing seen yet
+  Histogram() {
+    this.counts = new long[16];
+  }
+  
+  //records one value, growing the histogram if it is past the end
+  void add(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("a histogram only holds values of 0 or more");
+    }
+    if (value >= this.counts.length) {
+      this.counts = Arrays.copyOf(this.counts, Math.max(value + 1, this.counts.length * 2));
+    }
+    this.counts[value]++;
+    this.total++;
+  }
+  
+  //adds another histogram's counts into this one
+  void merge(Histogram other) {
+    if (other.counts.length > this.counts.length) {
+      this.counts = Arrays.copyOf(this.counts, other.counts.length);
+    }
+    for (int value = 0; value < other.counts.length; value++) {
+      this.counts[value] += other.counts[value];
+    }
+    this.total += other.total;
+  }
+  
+  //the average value seen
+  double mean() {
+    double sum = 0;
+    for (int value = 0; value < this.counts.length; value++) {
+      sum += (double) value * this.counts[value];
+    }
+    return this.total == 0 ? 0 : sum / this.total;
+  }
+  
+  //the smallest value that at least the given share of values are no bigger than
+  int percentile(double share) {
+    long needed = (long) Math.ceil(share * this.total);
+    long seen = 0;
+    for (int value = 0; value < this.counts.length; value++) {
+      seen += this.counts[value];
+      if (seen >= needed && seen > 0) {
+        return value;
+      }
+    }
+    return 0;
+  }
+  
+  //are the counts the same as another histogram's (whatever their lengths)?
+  public boolean equals(Object other) {
+    if (!(other instanceof Histogram)) {
+      return false;
+    }
+    Histogram that = (Histogram) other;
+    int length = Math.max(this.counts.length, that.counts.length);
+    for (int value = 0; value < length; value++) {
+      long mine = value < this.counts.length ? this.counts[value] : 0;
+      long theirs = value < that.counts.length ? that.counts[value] : 0;
+      if (mine != theirs) {
+        return false;
+      }
+    }
+    return this.total == that.total;
+  }
+  
+  //a hash of the counts, ignoring zeros at the end
+  public int hashCode() {
+    int length = this.counts.length;
+    while (length > 0 && this.counts[length - 1] == 0) {
+      length--;
+    }
+    return Arrays.hashCode(Arrays.copyOf(this.counts, length));
+  }
+  
+  //the mean, median and 90th percentile
+  String summary() {
+    return "mean " + String.format("%.2f", this.mean()) + ", median " + this.percentile(0.5)
+        + ", p90 " + this.percentile(0.9);
+  }
+  
+}
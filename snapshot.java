@@ -0,0 +1,248 @@
+//Assignment 9: MINESWEEPER (snapshots)
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//saves and loads a Game in a compact binary format. a snapshot is a 40 byte header
+//followed by 3 bits per cell (mine, revealed, flagged) packed low bit first, so an
+//expert board takes 220 bytes. all numbers are big-endian:
+//  int   magic (MSWP)
+//  byte  format version
+//  byte  flags (packed, mines placed, game over, game won)
+//  byte  placement mode
+//  byte  reserved (0)
+//  int   rows, int cols, int mines, int clicks
+//  long  the seed the game's random was last given
+//  long  how many times the random has drawn since (version 2 on)
+//version 1 snapshots, with a 32 byte header and no draws, can still be read
+//the adjacency counts and every counter the game keeps are worked out again when
+//loading, so they can never disagree with the cells
+class GameSnapshot {
+  static final int MAGIC = 0x4D535750;
+  static final int VERSION = 2;
+  static final int HEADER_BYTES = 40;
+  static final int V1_HEADER_BYTES = 32;
+  //the flag bits
+  static final int PACKED = 1;
+  static final int MINES_PLACED = 2;
+  static final int GAME_OVER = 4;
+  static final int GAME_WON = 8;
+  //the bits of a cell
+  static final int CELL_MINE = 1;
+  static final int CELL_REVEALED = 2;
+  static final int CELL_FLAGGED = 4;
+  static final int CELL_BITS = 3;
+  
+  //how many bytes the snapshot of a game takes
+  static int size(Game game) {
+    return HEADER_BYTES + cellBytes(game.board.size());
+  }
+  
+  //how many bytes the cells of a board of the given size take
+  static int cellBytes(long cells) {
+    long bytes = (cells * CELL_BITS + 7) / 8;
+    if (bytes > Integer.MAX_VALUE - HEADER_BYTES) {
+      throw new IllegalArgumentException("a board of " + cells + " cells is too big to save");
+    }
+    return (int) bytes;
+  }
+  
+  //writes a snapshot of the game into the buffer, leaving the game as it was.
+  //the game's random is saved as its seed and the draws made since, so the saved
+  //game and the game it was saved from go on to make the same boards
+  static void write(Game game, ByteBuffer out) {
+    IBoard board = game.board;
+    int flags = (game.packed ? PACKED : 0) | (game.minesPlaced ? MINES_PLACED : 0)
+        | (game.gameOver ? GAME_OVER : 0) | (game.gameWon ? GAME_WON : 0);
+    out.putInt(MAGIC);
+    out.put((byte) VERSION);
+    out.put((byte) flags);
+    out.put((byte) game.placement);
+    out.put((byte) 0);
+    out.putInt(game.rows);
+    out.putInt(game.cols);
+    out.putInt(game.numMines);
+    out.putInt(game.clickCount);
+    out.putLong(game.rand.seed);
+    out.putLong(game.rand.draws);
+    
+    long bits = 0;
+    int pending = 0;
+    for (int index = 0; index < board.size(); index++) {
+      int cell = (board.isMine(index) ? CELL_MINE : 0)
+          | (board.isRevealed(index) ? CELL_REVEALED : 0)
+          | (board.isFlagged(index) ? CELL_FLAGGED : 0);
+      bits |= (long) cell << pending;
+      pending += CELL_BITS;
+      if (pending >= 8) {
+        out.put((byte) bits);
+        bits >>>= 8;
+        pending -= 8;
+      }
+    }
+    if (pending > 0) {
+      out.put((byte) bits);
+    }
+  }
+  
+  //a new buffer holding a snapshot of the game, ready to be read
+  static ByteBuffer toBuffer(Game game) {
+    ByteBuffer buffer = ByteBuffer.allocate(size(game));
+    write(game, buffer);
+    buffer.flip();
+    return buffer;
+  }
+  
+  //reads a snapshot from the buffer into a new game
+  static Game read(ByteBuffer in) {
+    return read(in, null);
+  }
+  
+  //reads a snapshot from the buffer, into the reuse game if it has the same size
+  //and mode (its board is cleared in place, so nothing is allocated), or else into
+  //a new game. returns the game that was loaded
+  static Game read(ByteBuffer in, Game reuse) {
+    if (in.getInt() != MAGIC) {
+      throw new IllegalArgumentException("not a game snapshot");
+    }
+    int version = in.get();
+    if (version != 1 && version != VERSION) {
+      throw new IllegalArgumentException("unsupported snapshot version " + version);
+    }
+    int flags = in.get();
+    int placement = in.get();
+    in.get();
+    int rows = in.getInt();
+    int cols = in.getInt();
+    int mines = in.getInt();
+    int clicks = in.getInt();
+    long seed = in.getLong();
+    long draws = version == 1 ? 0 : in.getLong();
+    if (draws < 0) {
+      throw new IllegalArgumentException("not a game snapshot");
+    }
+    boolean packed = (flags & PACKED) != 0;
+    if (placement < Game.PLACE_NOW || placement > Game.PLACE_NO_GUESS) {
+      throw new IllegalArgumentException("unknown placement mode " + placement);
+    }
+    
+    Game game = reuse;
+    if (game != null && game.rows == rows && game.cols == cols && game.packed == packed) {
+      if (mines < 0 || mines >= rows * cols) {
+        throw new IllegalArgumentException("number of mines must be between 0 and "
+            + (rows * cols - 1));
+      }
+      game.rand.restore(seed, draws);
+      game.clearBoard();
+    }
+    else {
+      //built with a deferred placement so the constructor checks the size and mine
+      //count without placing any mines, then set to the saved mode
+      SeededRandom rand = new SeededRandom(seed);
+      rand.restore(seed, draws);
+      game = new Game(rows, cols, mines, rand, packed, Game.PLACE_SAFE_CELL);
+    }
+    game.numMines = mines;
+    game.placement = placement;
+    game.clickCount = clicks;
+    game.minesPlaced = (flags & MINES_PLACED) != 0;
+    game.gameOver = (flags & GAME_OVER) != 0;
+    game.gameWon = (flags & GAME_WON) != 0;
+    
+    IBoard board = game.board;
+    int hiddenSafe = 0;
+    int flagged = 0;
+    long bits = 0;
+    int pending = 0;
+    for (int index = 0; index < board.size(); index++) {
+      if (pending < CELL_BITS) {
+        bits |= (long) (in.get() & 0xFF) << pending;
+        pending += 8;
+      }
+      int cell = (int) bits & 7;
+      bits >>>= CELL_BITS;
+      pending -= CELL_BITS;
+      
+      //most cells are hidden and safe, and a cleared board already has them that way
+      if (cell == 0) {
+        hiddenSafe++;
+        continue;
+      }
+      if ((cell & CELL_MINE) != 0) {
+        board.setMine(index, true);
+      }
+      else if ((cell & CELL_REVEALED) == 0) {
+        hiddenSafe++;
+      }
+      if ((cell & CELL_REVEALED) != 0) {
+        board.setRevealed(index, true);
+      }
+      if ((cell & CELL_FLAGGED) != 0) {
+        board.setFlagged(index, true);
+        flagged++;
+      }
+    }
+    //before the mines are placed every safe cell to be is hidden
+    game.hiddenSafeCells = game.minesPlaced ? hiddenSafe : board.size() - mines;
+    game.flagCount = flagged;
+    if (game.minesPlaced) {
+      game.measureBoard();
+    }
+    return game;
+  }
+  
+  //writes a snapshot of the game to the channel
+  static void write(Game game, WritableByteChannel channel) throws IOException {
+    ByteBuffer buffer = toBuffer(game);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+  
+  //reads one snapshot from the channel into a new game, reading no further than its end
+  static Game read(ReadableByteChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(V1_HEADER_BYTES);
+    fill(channel, header);
+    long cells = (long) header.getInt(8) * header.getInt(12);
+    if (header.getInt(0) != MAGIC || cells < 0) {
+      throw new IllegalArgumentException("not a game snapshot");
+    }
+    int headerBytes = header.get(4) == 1 ? V1_HEADER_BYTES : HEADER_BYTES;
+    ByteBuffer buffer = ByteBuffer.allocate(headerBytes + cellBytes(cells));
+    header.flip();
+    buffer.put(header);
+    fill(channel, buffer);
+    buffer.flip();
+    return read(buffer);
+  }
+  
+  //reads from the channel until the buffer is full
+  static void fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("the snapshot ends early");
+      }
+    }
+  }
+  
+  //saves a snapshot of the game to a file, replacing what was there
+  static void save(Game game, Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      write(game, channel);
+    }
+  }
+  
+  //loads a game from a snapshot file
+  static Game load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return read(channel);
+    }
+  }
+  
+}
@@ -0,0 +1,1307 @@
+//Assignment 9: MINESWEEPER (headless solver)
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+//a headless player for a Game. it only looks at what a player can see (which
+//cells are revealed, their numbers, and the flags) and plays by calling
+//Game.leftClick and Game.rightClick, so it never peeks at a hidden mine.
+//each move comes from, in order:
+//1) single cell deductions: a number whose flags already match it makes the rest of
+//   its hidden neighbors safe, and one whose hidden neighbors are all needed makes
+//   them all mines
+//2) subset propagation between pairs of nearby numbers over the frontier
+//3) the global mine count
+//4) a guess at the hidden cell least likely to be a mine, judged by a
+//   ProbabilityCalculator when one is set, or else by a quick estimate
+class Solver {
+  Game game;
+  //revealed cells whose neighborhoods changed and should be looked at again
+  int[] toCheck;
+  int checkCount;
+  boolean[] queued;
+  //every revealed number that may still touch hidden cells. once a number has no
+  //hidden neighbors it never gets any again, so checkPairs drops it from the list
+  int[] open;
+  int openCount;
+  boolean[] isOpen;
+  //for each cell, how many of its neighbors are hidden and unflagged, and how many
+  //are flagged, kept up to date as the solver reveals and flags cells so a number
+  //only has its neighborhood scanned when there is a move to make there
+  int[] hiddenAround;
+  int[] flagsAround;
+  //how many neighbors each cell has, what hiddenAround starts from on a fresh board
+  int[] neighborCounts;
+  //scratch space for looking at neighborhoods
+  int[] neighbors;
+  int[] constraintNeighbors;
+  int[] hidden;
+  int[] otherHidden;
+  int[] onlyFirst;
+  int[] onlySecond;
+  //the frontier as last brought up to date by checkPairs: the revealed numbers that
+  //touch hidden cells, and for each number, how many mines it still needs and its
+  //hidden neighbors (8 entries per cell, at the cell's index times 8) as they were
+  //when its neighborhood last changed
+  int[] frontier;
+  int[] frontierNeeded;
+  int[] frontierHiddenCount;
+  int[] frontierHidden;
+  int frontierCount;
+  //the frontier slot of each cell, or -1
+  int[] slotOf;
+  //the pass of checkPairs during which each revealed cell's neighborhood last changed.
+  //a pair that found nothing can only find something once one of its two numbers has
+  //changed, so each pass only looks at pairs touching a cell changed since the last one
+  int[] changedAt;
+  int pass;
+  //how risky each frontier cell looks while guess() runs, and -1 everywhere else
+  double[] risk;
+  //works out exact chances for guess() when set, null to use the quick estimate
+  ProbabilityCalculator calculator;
+  //stops instead of guessing, leaving the game unfinished, when set
+  boolean deduceOnly;
+  //the cell clicked first when nothing is revealed yet (-1 for the center)
+  int firstMove;
+  //statistics over every game this solver has played
+  int gamesPlayed;
+  int gamesWon;
+  int guesses;
+  long totalNanos;
+  long lastNanos;
+  long maxNanos;
+  
+  //constructor
+  Solver(Game game) {
+    this.game = game;
+    this.firstMove = -1;
+    this.neighbors = new int[8];
+    this.constraintNeighbors = new int[8];
+    this.hidden = new int[8];
+    this.otherHidden = new int[8];
+    this.onlyFirst = new int[8];
+    this.onlySecond = new int[8];
+  }
+  
+  //plays the game until it is won or lost (or until it would have to guess, when
+  //deduceOnly is set, or has no unflagged hidden cell left to click), returns
+  //whether it was won
+  boolean solve() {
+    long start = System.nanoTime();
+    this.prepare();
+    
+    while (!this.game.gameOver) {
+      if (this.checkCount > 0) {
+        this.checkCount--;
+        int index = this.toCheck[this.checkCount];
+        this.queued[index] = false;
+        this.checkCell(index);
+      }
+      else if (!this.checkPairs() && !this.checkMineCount()) {
+        if (this.deduceOnly || !this.guess()) {
+          break;
+        }
+      }
+    }
+    
+    this.lastNanos = System.nanoTime() - start;
+    this.totalNanos += this.lastNanos;
+    this.maxNanos = Math.max(this.maxNanos, this.lastNanos);
+    this.gamesPlayed++;
+    if (this.game.gameWon) {
+      this.gamesWon++;
+    }
+    return this.game.gameWon;
+  }
+  
+  //gets the buffers ready for the game's board and queues what is already revealed,
+  //making the first move if nothing is
+  void prepare() {
+    int size = this.game.board.size();
+    if (this.queued == null || this.queued.length != size) {
+      this.toCheck = new int[size];
+      this.queued = new boolean[size];
+      this.open = new int[size];
+      this.isOpen = new boolean[size];
+      this.frontier = new int[size];
+      this.frontierNeeded = new int[size];
+      this.frontierHiddenCount = new int[size];
+      this.frontierHidden = new int[size * 8];
+      this.slotOf = new int[size];
+      this.changedAt = new int[size];
+      this.risk = new double[size];
+      Arrays.fill(this.risk, -1);
+      this.hiddenAround = new int[size];
+      this.flagsAround = new int[size];
+      this.neighborCounts = new int[size];
+      for (int index = 0; index < size; index++) {
+        this.neighborCounts[index] = this.game.board.neighbors(index, this.neighbors);
+      }
+    }
+    else {
+      for (int k = 0; k < this.checkCount; k++) {
+        this.queued[this.toCheck[k]] = false;
+      }
+      for (int k = 0; k < this.openCount; k++) {
+        this.isOpen[this.open[k]] = false;
+      }
+    }
+    this.checkCount = 0;
+    this.openCount = 0;
+    this.frontierCount = 0;
+    Arrays.fill(this.slotOf, -1);
+    this.pass++;
+    System.arraycopy(this.neighborCounts, 0, this.hiddenAround, 0, size);
+    Arrays.fill(this.flagsAround, 0);
+    
+    IBoard board = this.game.board;
+    boolean anyRevealed = false;
+    for (int index = 0; index < size; index++) {
+      if (board.isRevealed(index) || board.isFlagged(index)) {
+        this.uncover(index, board.isFlagged(index));
+        anyRevealed = anyRevealed || board.isRevealed(index);
+      }
+    }
+    for (int index = 0; index < size && anyRevealed; index++) {
+      this.queue(index);
+    }
+    if (!anyRevealed && !this.game.gameOver) {
+      int first = this.firstMove;
+      if (first < 0) {
+        first = (this.game.rows / 2) * this.game.cols + this.game.cols / 2;
+      }
+      this.reveal(first);
+    }
+  }
+  
+  //queues a revealed number to be looked at again. a number with no hidden
+  //unflagged neighbors left (a revealed 0 among them) is skipped, since it never
+  //gets any again
+  void queue(int index) {
+    IBoard board = this.game.board;
+    if (this.hiddenAround[index] == 0 || !board.isRevealed(index)) {
+      return;
+    }
+    this.changedAt[index] = this.pass;
+    if (!this.queued[index]) {
+      this.queued[index] = true;
+      this.toCheck[this.checkCount] = index;
+      this.checkCount++;
+    }
+    if (!this.isOpen[index]) {
+      this.isOpen[index] = true;
+      this.open[this.openCount] = index;
+      this.openCount++;
+    }
+  }
+  
+  //takes a cell that was revealed or flagged out of its neighbors' hidden cells
+  void uncover(int index, boolean flagged) {
+    int count = this.game.board.neighbors(index, this.neighbors);
+    for (int k = 0; k < count; k++) {
+      int neighbor = this.neighbors[k];
+      this.hiddenAround[neighbor]--;
+      if (flagged) {
+        this.flagsAround[neighbor]++;
+      }
+    }
+  }
+  
+  //uncovers a cell that was just revealed or flagged, and queues it and every
+  //revealed cell around it
+  void queueAround(int index, boolean flagged) {
+    this.queue(index);
+    int count = this.game.board.neighbors(index, this.neighbors);
+    for (int k = 0; k < count; k++) {
+      int neighbor = this.neighbors[k];
+      this.hiddenAround[neighbor]--;
+      if (flagged) {
+        this.flagsAround[neighbor]++;
+      }
+      this.queue(neighbor);
+    }
+  }
+  
+  //left clicks a hidden cell and queues everything the click revealed,
+  //returns whether it clicked
+  boolean reveal(int index) {
+    IBoard board = this.game.board;
+    if (this.game.gameOver || board.isRevealed(index) || board.isFlagged(index)) {
+      return false;
+    }
+    this.game.leftClick(index / this.game.cols, index % this.game.cols);
+    if (!this.game.gameOver || this.game.gameWon) {
+      for (int k = 0; k < this.game.revealCount; k++) {
+        this.queueAround(this.game.revealQueue[k], false);
+      }
+    }
+    return true;
+  }
+  
+  //right clicks a hidden cell that must be a mine and queues the numbers around it,
+  //returns whether it clicked
+  boolean flag(int index) {
+    IBoard board = this.game.board;
+    if (this.game.gameOver || board.isRevealed(index) || board.isFlagged(index)) {
+      return false;
+    }
+    this.game.rightClick(index / this.game.cols, index % this.game.cols);
+    this.queueAround(index, true);
+    return true;
+  }
+  
+  //writes the hidden unflagged neighbors of the given revealed cell into out,
+  //starting at the given position, and returns how many
+  int constraint(int index, int[] out, int at) {
+    IBoard board = this.game.board;
+    int count = board.neighbors(index, this.constraintNeighbors);
+    int hiddenCount = 0;
+    for (int k = 0; k < count; k++) {
+      int neighbor = this.constraintNeighbors[k];
+      if (!board.isFlagged(neighbor) && !board.isRevealed(neighbor)) {
+        out[at + hiddenCount] = neighbor;
+        hiddenCount++;
+      }
+    }
+    return hiddenCount;
+  }
+  
+  //how many mines are still unaccounted for around the given revealed cell (below 0
+  //when a wrong flag leaves more flags than mines around the number)
+  int needed(int index) {
+    return this.game.board.adjacentMines(index) - this.flagsAround[index];
+  }
+  
+  //applies the single cell deductions to a revealed cell
+  void checkCell(int index) {
+    int hiddenCount = this.hiddenAround[index];
+    int needed = this.needed(index);
+    if (hiddenCount == 0 || (needed != 0 && needed != hiddenCount)) {
+      return;
+    }
+    this.constraint(index, this.hidden, 0);
+    if (needed == 0) {
+      //the flags already account for every mine, the rest are safe
+      for (int k = 0; k < hiddenCount; k++) {
+        this.reveal(this.hidden[k]);
+      }
+    }
+    else if (needed == hiddenCount) {
+      //every hidden neighbor is needed, so they are all mines
+      for (int k = 0; k < hiddenCount; k++) {
+        this.flag(this.hidden[k]);
+      }
+    }
+  }
+  
+  //looks for two nearby numbers where the cells only the second one touches must
+  //hold all of the extra mines the second needs. then those cells are mines and the
+  //cells only the first one touches are safe. this covers the subset cases too
+  //(checking both orders of every pair). every number on the frontier is listed
+  //again only when its neighborhood changed, and since a deduction stays true as the
+  //board changes, every move found in the pass is made. returns whether it made a move
+  boolean checkPairs() {
+    int rows = this.game.rows;
+    int cols = this.game.cols;
+    int since = this.pass;
+    this.pass++;
+    
+    //bring the frontier up to date: each open number that still touches hidden cells
+    for (int slot = 0; slot < this.frontierCount; slot++) {
+      this.slotOf[this.frontier[slot]] = -1;
+    }
+    this.frontierCount = 0;
+    int stillOpen = 0;
+    for (int k = 0; k < this.openCount; k++) {
+      int index = this.open[k];
+      if (this.hiddenAround[index] > 0) {
+        if (this.changedAt[index] >= since) {
+          this.frontierNeeded[index] = this.needed(index);
+          this.frontierHiddenCount[index] = this.constraint(index, this.frontierHidden,
+              index * 8);
+        }
+        this.slotOf[index] = this.frontierCount;
+        this.frontier[this.frontierCount] = index;
+        this.frontierCount++;
+        this.open[stillOpen] = index;
+        stillOpen++;
+      }
+      else {
+        this.isOpen[index] = false;
+      }
+    }
+    this.openCount = stillOpen;
+    
+    //a pair that found nothing can only find something once one of its numbers has
+    //changed, so only the changed numbers are paired with their neighbors (a pair of
+    //two changed numbers is taken from the one that comes first on the frontier)
+    boolean moved = false;
+    for (int firstSlot = 0; firstSlot < this.frontierCount; firstSlot++) {
+      int first = this.frontier[firstSlot];
+      if (this.changedAt[first] < since) {
+        continue;
+      }
+      int firstCount = this.frontierHiddenCount[first];
+      int row = first / cols;
+      int col = first % cols;
+      
+      //numbers that share a hidden cell are at most 2 rows and 2 columns apart
+      for (int i = Math.max(0, row - 2); i <= Math.min(rows - 1, row + 2); i++) {
+        for (int j = Math.max(0, col - 2); j <= Math.min(cols - 1, col + 2); j++) {
+          int second = i * cols + j;
+          int secondSlot = this.slotOf[second];
+          if (secondSlot < 0 || secondSlot == firstSlot
+              || (secondSlot < firstSlot && this.changedAt[second] >= since)) {
+            continue;
+          }
+          int secondCount = this.frontierHiddenCount[second];
+          
+          int onlyFirstCount = this.difference(first, firstCount, second, secondCount,
+              this.onlyFirst);
+          if (onlyFirstCount == firstCount) {
+            //nothing shared
+            continue;
+          }
+          int onlySecondCount = this.difference(second, secondCount, first, firstCount,
+              this.onlySecond);
+          if (onlyFirstCount + onlySecondCount == 0) {
+            continue;
+          }
+          
+          int extra = this.frontierNeeded[second] - this.frontierNeeded[first];
+          if (extra == onlySecondCount) {
+            for (int k = 0; k < onlySecondCount; k++) {
+              moved = this.flag(this.onlySecond[k]) || moved;
+            }
+            for (int k = 0; k < onlyFirstCount; k++) {
+              moved = this.reveal(this.onlyFirst[k]) || moved;
+            }
+          }
+          else if (-extra == onlyFirstCount) {
+            for (int k = 0; k < onlyFirstCount; k++) {
+              moved = this.flag(this.onlyFirst[k]) || moved;
+            }
+            for (int k = 0; k < onlySecondCount; k++) {
+              moved = this.reveal(this.onlySecond[k]) || moved;
+            }
+          }
+          if (this.game.gameOver) {
+            return true;
+          }
+        }
+      }
+    }
+    return moved;
+  }
+  
+  //writes the listed hidden cells of frontier number a that are not next to frontier
+  //number b into out and returns how many
+  int difference(int a, int aCount, int b, int bCount, int[] out) {
+    int count = 0;
+    for (int x = a * 8; x < a * 8 + aCount; x++) {
+      boolean shared = false;
+      for (int y = b * 8; y < b * 8 + bCount && !shared; y++) {
+        shared = this.frontierHidden[x] == this.frontierHidden[y];
+      }
+      if (!shared) {
+        out[count] = this.frontierHidden[x];
+        count++;
+      }
+    }
+    return count;
+  }
+  
+  //uses the number of mines left: with none left every hidden cell is safe, and
+  //with exactly as many left as hidden cells they are all mines.
+  //returns whether it made a move
+  boolean checkMineCount() {
+    IBoard board = this.game.board;
+    int minesLeft = this.game.minesRemaining();
+    int hiddenCount = this.hiddenCount();
+    if (minesLeft != 0 && minesLeft != hiddenCount) {
+      return false;
+    }
+    
+    for (int index = 0; index < board.size() && !this.game.gameOver; index++) {
+      if (!board.isRevealed(index) && !board.isFlagged(index)) {
+        if (minesLeft == 0) {
+          this.reveal(index);
+        }
+        else {
+          this.flag(index);
+        }
+      }
+    }
+    return true;
+  }
+  
+  //clicks the hidden cell that looks least likely to be a mine. a cell next to
+  //numbers is as risky as the riskiest of them (mines needed over hidden cells),
+  //and any other cell gets the density of mines left over the hidden cells.
+  //it reads the frontier checkPairs just summarized, since nothing moved since then.
+  //returns false if there was no cell to click (every hidden cell is flagged, which
+  //happens when a wrong flag keeps the game going)
+  boolean guess() {
+    if (this.calculator != null) {
+      return this.guessExact();
+    }
+    IBoard board = this.game.board;
+    double density = (double) this.game.minesRemaining() / this.hiddenCount();
+    for (int slot = 0; slot < this.frontierCount; slot++) {
+      int number = this.frontier[slot];
+      int hiddenCount = this.frontierHiddenCount[number];
+      double slotRisk = (double) Math.max(0, this.frontierNeeded[number]) / hiddenCount;
+      for (int k = number * 8; k < number * 8 + hiddenCount; k++) {
+        int cell = this.frontierHidden[k];
+        this.risk[cell] = Math.max(this.risk[cell], slotRisk);
+      }
+    }
+    
+    //the least risky frontier cell (the first one on the board, on a tie)
+    int best = -1;
+    double bestRisk = 2;
+    for (int slot = 0; slot < this.frontierCount; slot++) {
+      int number = this.frontier[slot];
+      for (int k = number * 8; k < number * 8 + this.frontierHiddenCount[number]; k++) {
+        int cell = this.frontierHidden[k];
+        double cellRisk = this.risk[cell];
+        if (cellRisk < bestRisk || (cellRisk == bestRisk && cell < best)) {
+          bestRisk = cellRisk;
+          best = cell;
+        }
+      }
+    }
+    //and the first cell away from the frontier, if it could be less risky
+    if (density <= bestRisk) {
+      for (int index = 0; index < board.size(); index++) {
+        if (this.risk[index] < 0 && !board.isRevealed(index) && !board.isFlagged(index)) {
+          if (density < bestRisk || index < best) {
+            best = index;
+          }
+          break;
+        }
+      }
+    }
+    for (int slot = 0; slot < this.frontierCount; slot++) {
+      int number = this.frontier[slot];
+      for (int k = number * 8; k < number * 8 + this.frontierHiddenCount[number]; k++) {
+        this.risk[this.frontierHidden[k]] = -1;
+      }
+    }
+    
+    if (best < 0) {
+      return false;
+    }
+    this.guesses++;
+    return this.reveal(best);
+  }
+  
+  //reveals the hidden cell the calculator finds least likely to be a mine. a cell
+  //with no chance at all of being a mine is a deduction rather than a guess.
+  //returns false if there was no cell to click
+  boolean guessExact() {
+    IBoard board = this.game.board;
+    this.calculator.calculate();
+    int best = -1;
+    double bestRisk = 2;
+    for (int index = 0; index < board.size(); index++) {
+      if (!board.isRevealed(index) && !board.isFlagged(index)
+          && this.calculator.probability[index] < bestRisk) {
+        bestRisk = this.calculator.probability[index];
+        best = index;
+      }
+    }
+    
+    if (best < 0) {
+      return false;
+    }
+    if (bestRisk > 0) {
+      this.guesses++;
+    }
+    return this.reveal(best);
+  }
+  
+  //how many cells are hidden and unflagged (a player can count these on screen,
+  //here they come from the game's counters: every hidden cell is a hidden safe cell
+  //or a mine, since the game is over as soon as a mine is revealed)
+  int hiddenCount() {
+    return this.game.hiddenSafeCells + this.game.numMines - this.game.flagCount;
+  }
+  
+  //the average time per game played, in microseconds
+  double averageMicros() {
+    return this.gamesPlayed == 0 ? 0 : this.totalNanos / 1000.0 / this.gamesPlayed;
+  }
+  
+  //a summary of every game played so far
+  String summary() {
+    return this.gamesPlayed + " games, " + this.gamesWon + " won, " + this.guesses
+        + " guesses, " + String.format("%.1f", this.averageMicros()) + " us/game average, "
+        + String.format("%.1f", this.maxNanos / 1000.0) + " us/game max";
+  }
+  
+  //solves expert boards headlessly and prints the timing, guessing with exact
+  //chances when the third argument is "exact". like Benchmarks, it first plays
+  //other boards for about a second, so the timing is of compiled code,
+  //usage: java Solver [games] [seed] [exact]
+  public static void main(String[] args) {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+    boolean exact = args.length > 2 && args[2].equals("exact");
+    Game warmupGame = new Game(16, 30, 99, new Random(seed + 1), true, Game.PLACE_SAFE_AREA);
+    Solver warmupSolver = new Solver(warmupGame);
+    if (exact) {
+      warmupSolver.calculator = new ProbabilityCalculator(warmupGame);
+    }
+    long warmupEnd = System.nanoTime() + 1000000000L;
+    while (System.nanoTime() < warmupEnd) {
+      warmupGame.resetGame();
+      warmupSolver.solve();
+    }
+    
+    Game game = new Game(16, 30, 99, new Random(seed), true, Game.PLACE_SAFE_AREA);
+    Solver solver = new Solver(game);
+    if (exact) {
+      solver.calculator = new ProbabilityCalculator(game);
+    }
+    long start = System.nanoTime();
+    for (int k = 0; k < games; k++) {
+      game.resetGame();
+      solver.solve();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(solver.summary());
+    System.out.println(String.format("%.0f", games / seconds) + " games/second");
+  }
+  
+}
+
+//builds boards for Game.PLACE_NO_GUESS: boards that a Solver using deduction alone
+//clears from the first click. it places the mines as PLACE_SAFE_AREA does, plays a
+//copy of the board on a scratch game with a deduce-only solver, and wherever the
+//solver gets stuck it repairs the layout locally: a stuck cell next to the revealed
+//area swaps its mine (or its lack of one) with a cell out in the unexplored part of
+//the board, and the copy is played again. only when a layout takes too many repairs
+//is it thrown away and placed again from scratch
+class NoGuessGenerator {
+  Game game;
+  //the copy of the board the solver plays
+  Game scratch;
+  Solver solver;
+  //how many layouts and repairs one board may take before giving up
+  int maxAttempts;
+  int maxRepairs;
+  //what the last board took: layouts placed, and mines moved over all of them
+  int attempts;
+  int repairs;
+  //scratch lists of cells for picking repairs
+  int[] stuck;
+  int[] openSafe;
+  int[] openMines;
+  int[] neighbors;
+  
+  //constructor, allowing 100 layouts of up to one repair per cell each
+  NoGuessGenerator(Game game) {
+    this.game = game;
+    this.maxAttempts = 100;
+    this.maxRepairs = game.board.size();
+    this.neighbors = new int[8];
+  }
+  
+  //places the mines on the game's empty board, returns whether the board was
+  //proven to need no guesses (if not, the last layout tried is kept)
+  boolean generate(int safeIndex) {
+    int size = this.game.board.size();
+    if (this.scratch == null || this.scratch.board.size() != size) {
+      this.scratch = new Game(this.game.rows, this.game.cols, this.game.numMines,
+          this.game.rand, true, Game.PLACE_SAFE_CELL);
+      this.solver = new Solver(this.scratch);
+      this.solver.deduceOnly = true;
+      this.stuck = new int[size];
+      this.openSafe = new int[size];
+      this.openMines = new int[size];
+    }
+    this.attempts = 0;
+    this.repairs = 0;
+    
+    boolean solved = false;
+    while (!solved && this.attempts < this.maxAttempts) {
+      if (this.attempts > 0) {
+        this.clearMines();
+      }
+      this.attempts++;
+      this.game.placeMines(safeIndex);
+      solved = this.solvable(safeIndex);
+      for (int k = 0; k < this.maxRepairs && !solved && this.repair(); k++) {
+        this.repairs++;
+        solved = this.solvable(safeIndex);
+      }
+    }
+    //the repairs moved mines after placeMines measured the board
+    this.game.measureBoard();
+    return solved;
+  }
+  
+  //takes every mine off the game's board before the next layout, leaving the flags
+  //the player placed before the first click where they are
+  void clearMines() {
+    IBoard board = this.game.board;
+    for (int index = 0; index < board.size(); index++) {
+      if (board.isMine(index)) {
+        board.setMine(index, false);
+      }
+    }
+  }
+  
+  //copies the game's mines onto a fresh scratch board, clicks the safe cell and lets
+  //the solver deduce as far as it can, returns whether it cleared the board
+  boolean solvable(int safeIndex) {
+    Game copy = this.scratch;
+    copy.gameOver = false;
+    copy.gameWon = false;
+    copy.clickCount = 0;
+    copy.clearBoard();
+    IBoard board = this.game.board;
+    for (int index = 0; index < board.size(); index++) {
+      if (board.isMine(index)) {
+        copy.board.setMine(index, true);
+      }
+    }
+    copy.minesPlaced = true;
+    copy.hiddenSafeCells = board.size() - copy.numMines;
+    copy.leftClick(safeIndex / copy.cols, safeIndex % copy.cols);
+    return copy.gameWon || this.solver.solve();
+  }
+  
+  //moves one mine where the solver got stuck on the scratch board: picks a random
+  //hidden cell next to the revealed area, and swaps it with a random cell that is
+  //hidden and away from the revealed area (a mine goes out there, or one is brought
+  //in), returns false if there is nothing to swap with
+  boolean repair() {
+    IBoard board = this.scratch.board;
+    int stuckCount = 0;
+    int safeCount = 0;
+    int mineCount = 0;
+    for (int index = 0; index < board.size(); index++) {
+      if (board.isRevealed(index) || board.isFlagged(index)) {
+        continue;
+      }
+      boolean nearRevealed = false;
+      int count = board.neighbors(index, this.neighbors);
+      for (int k = 0; k < count && !nearRevealed; k++) {
+        nearRevealed = board.isRevealed(this.neighbors[k]);
+      }
+      if (nearRevealed) {
+        this.stuck[stuckCount] = index;
+        stuckCount++;
+      }
+      else if (board.isMine(index)) {
+        this.openMines[mineCount] = index;
+        mineCount++;
+      }
+      else {
+        this.openSafe[safeCount] = index;
+        safeCount++;
+      }
+    }
+    if (stuckCount == 0) {
+      return false;
+    }
+    
+    Random rand = this.game.rand;
+    int cell = this.stuck[rand.nextInt(stuckCount)];
+    if (board.isMine(cell) && safeCount > 0) {
+      this.game.moveMine(cell, this.openSafe[rand.nextInt(safeCount)]);
+      return true;
+    }
+    if (!board.isMine(cell) && mineCount > 0) {
+      this.game.moveMine(this.openMines[rand.nextInt(mineCount)], cell);
+      return true;
+    }
+    return false;
+  }
+  
+}
+
+//works out the chance that each hidden cell of a Game is a mine, using only what a
+//player can see (flags are taken to be mines). the hidden cells next to revealed
+//numbers (the frontier) are split into independent components that share no number,
+//each component's mine layouts are counted exactly by backtracking, and the
+//components are combined with the cells away from the frontier (the interior) by
+//weighting each total of frontier mines with the number of ways to put the rest of
+//the mines in the interior. a component that is unchanged since an earlier call is
+//looked up instead of counted again. if a component takes more than its share of
+//the time budget (or too many steps), its cells fall back to an estimate from the
+//numbers around them and the result is marked as not exact
+class ProbabilityCalculator {
+  Game game;
+  //the time allowed for one calculation, and the most backtracking steps one
+  //component may take
+  long budgetNanos;
+  long maxNodes;
+  //after calculate(): the chance each cell is a mine (0 for revealed cells, 1 for
+  //flags), whether every component was counted exactly, and how many components
+  //were found and how many of them came from the memo
+  double[] probability;
+  boolean exact;
+  int components;
+  int memoHits;
+  //exact component results from earlier calls, keyed by their numbers and cells
+  HashMap<ComponentKey, ComponentCounts> memo;
+  //log(k!) for every k up to the board size, for the binomial weights
+  double[] logFactorial;
+  //the numbers on the frontier: the cell, how many mines it still needs, and its
+  //hidden neighbors as variable ids (8 entries per number)
+  int[] numberCell;
+  int[] numberNeeded;
+  int[] numberSize;
+  int[] numberVars;
+  int numberCount;
+  //the variables: each is a hidden cell on the frontier, the numbers it touches
+  //(8 entries per variable), and the component it belongs to
+  int[] varCell;
+  int[] varNumbers;
+  int[] varNumberCount;
+  int[] varParent;
+  int varCount;
+  int[] varOf;
+  //scratch space for the search of one component
+  int[] order;
+  int[] assigned;
+  int[] numberMines;
+  int[] numberLeft;
+  int[] componentNumbers;
+  int[] neighbors;
+  long nodes;
+  long deadline;
+  boolean aborted;
+  double[] solutions;
+  double[] varMines;
+  int componentSize;
+  int[] positionOf;
+  
+  //constructor, with a budget of 20 milliseconds and 5 million steps per component
+  ProbabilityCalculator(Game game) {
+    this.game = game;
+    this.budgetNanos = 20000000L;
+    this.maxNodes = 5000000L;
+    this.memo = new HashMap<ComponentKey, ComponentCounts>();
+    this.neighbors = new int[8];
+  }
+  
+  //sizes the buffers for the game's board
+  void prepare() {
+    int size = this.game.board.size();
+    if (this.probability == null || this.probability.length != size) {
+      this.probability = new double[size];
+      this.logFactorial = new double[size + 1];
+      for (int k = 1; k <= size; k++) {
+        this.logFactorial[k] = this.logFactorial[k - 1] + Math.log(k);
+      }
+      this.numberCell = new int[size];
+      this.numberNeeded = new int[size];
+      this.numberSize = new int[size];
+      this.numberVars = new int[size * 8];
+      this.varCell = new int[size];
+      this.varNumbers = new int[size * 8];
+      this.varNumberCount = new int[size];
+      this.varParent = new int[size];
+      this.varOf = new int[size];
+      this.order = new int[size];
+      this.assigned = new int[size];
+      this.numberMines = new int[size];
+      this.numberLeft = new int[size];
+      this.componentNumbers = new int[size];
+      this.positionOf = new int[size];
+      this.memo.clear();
+    }
+  }
+  
+  //works out the chance of a mine for every cell into probability,
+  //returns whether the answer is exact
+  boolean calculate() {
+    this.prepare();
+    IBoard board = this.game.board;
+    int size = board.size();
+    long start = System.nanoTime();
+    this.exact = true;
+    this.memoHits = 0;
+    
+    if (!this.findFrontier()) {
+      //the numbers contradict the flags, so all that's left is the mine density
+      this.exact = false;
+      this.fillDensity();
+      return false;
+    }
+    
+    //split the variables into components of numbers that share hidden cells
+    for (int v = 0; v < this.varCount; v++) {
+      this.varParent[v] = v;
+    }
+    for (int c = 0; c < this.numberCount; c++) {
+      for (int k = 1; k < this.numberSize[c]; k++) {
+        this.union(this.numberVars[c * 8], this.numberVars[c * 8 + k]);
+      }
+    }
+    ArrayList<ComponentCounts> counted = new ArrayList<ComponentCounts>();
+    ArrayList<int[]> members = new ArrayList<int[]>();
+    int[] rootComponent = this.positionOf;
+    for (int v = 0; v < this.varCount; v++) {
+      rootComponent[v] = -1;
+    }
+    int[] memberCount = new int[this.varCount];
+    for (int v = 0; v < this.varCount; v++) {
+      int root = this.find(v);
+      if (rootComponent[root] < 0) {
+        rootComponent[root] = members.size();
+        members.add(null);
+      }
+      memberCount[rootComponent[root]]++;
+    }
+    for (int c = 0; c < members.size(); c++) {
+      members.set(c, new int[memberCount[c]]);
+      memberCount[c] = 0;
+    }
+    for (int v = 0; v < this.varCount; v++) {
+      int c = rootComponent[this.find(v)];
+      members.get(c)[memberCount[c]] = v;
+      memberCount[c]++;
+    }
+    this.components = members.size();
+    
+    //count the layouts of each component, giving each an equal share of what is
+    //left of the time budget
+    for (int c = 0; c < members.size(); c++) {
+      long left = this.budgetNanos - (System.nanoTime() - start);
+      this.deadline = System.nanoTime() + Math.max(0, left / (members.size() - c));
+      counted.add(this.countComponent(members.get(c)));
+    }
+    
+    this.combine(members, counted);
+    for (int index = 0; index < size; index++) {
+      if (board.isRevealed(index)) {
+        this.probability[index] = 0;
+      }
+      else if (board.isFlagged(index)) {
+        this.probability[index] = 1;
+      }
+    }
+    return this.exact;
+  }
+  
+  //collects the numbers on the frontier and their hidden cells,
+  //returns false if a number can't be satisfied with the flags around it
+  boolean findFrontier() {
+    IBoard board = this.game.board;
+    this.numberCount = 0;
+    this.varCount = 0;
+    for (int index = 0; index < board.size(); index++) {
+      this.varOf[index] = -1;
+    }
+    
+    for (int index = 0; index < board.size(); index++) {
+      if (!board.isRevealed(index) || board.isMine(index)) {
+        continue;
+      }
+      int count = board.neighbors(index, this.neighbors);
+      int hidden = 0;
+      int flags = 0;
+      int c = this.numberCount;
+      for (int k = 0; k < count; k++) {
+        int neighbor = this.neighbors[k];
+        if (board.isFlagged(neighbor)) {
+          flags++;
+        }
+        else if (!board.isRevealed(neighbor)) {
+          if (this.varOf[neighbor] < 0) {
+            this.varOf[neighbor] = this.varCount;
+            this.varCell[this.varCount] = neighbor;
+            this.varNumberCount[this.varCount] = 0;
+            this.varCount++;
+          }
+          int v = this.varOf[neighbor];
+          this.numberVars[c * 8 + hidden] = v;
+          this.varNumbers[v * 8 + this.varNumberCount[v]] = c;
+          this.varNumberCount[v]++;
+          hidden++;
+        }
+      }
+      int needed = board.adjacentMines(index) - flags;
+      if (needed < 0 || needed > hidden) {
+        return false;
+      }
+      if (hidden > 0) {
+        this.numberCell[c] = index;
+        this.numberNeeded[c] = needed;
+        this.numberSize[c] = hidden;
+        this.numberCount++;
+      }
+    }
+    return true;
+  }
+  
+  //the root of a variable's component
+  int find(int v) {
+    while (this.varParent[v] != v) {
+      this.varParent[v] = this.varParent[this.varParent[v]];
+      v = this.varParent[v];
+    }
+    return v;
+  }
+  
+  //joins the components of two variables
+  void union(int a, int b) {
+    int rootA = this.find(a);
+    int rootB = this.find(b);
+    if (rootA != rootB) {
+      this.varParent[rootA] = rootB;
+    }
+  }
+  
+  //counts the mine layouts of one component, by how many mines they use, along
+  //with how many of those layouts put a mine on each of its variables
+  ComponentCounts countComponent(int[] vars) {
+    ComponentKey key = this.keyOf(vars);
+    ComponentCounts known = this.memo.get(key);
+    if (known != null) {
+      this.memoHits++;
+      return known;
+    }
+    
+    //order the variables breadth first through their numbers, so each number
+    //gets all its cells assigned close together and bad branches are cut early
+    int k = vars.length;
+    for (int p = 0; p < k; p++) {
+      this.positionOf[vars[p]] = p;
+      this.assigned[vars[p]] = -1;
+    }
+    int ordered = 0;
+    this.order[ordered] = vars[0];
+    this.assigned[vars[0]] = -2;
+    ordered++;
+    for (int next = 0; next < ordered; next++) {
+      int v = this.order[next];
+      for (int j = 0; j < this.varNumberCount[v]; j++) {
+        int c = this.varNumbers[v * 8 + j];
+        for (int x = 0; x < this.numberSize[c]; x++) {
+          int other = this.numberVars[c * 8 + x];
+          if (this.assigned[other] == -1) {
+            this.assigned[other] = -2;
+            this.order[ordered] = other;
+            ordered++;
+          }
+        }
+      }
+    }
+    for (int p = 0; p < k; p++) {
+      int v = vars[p];
+      this.assigned[v] = -1;
+      for (int j = 0; j < this.varNumberCount[v]; j++) {
+        int c = this.varNumbers[v * 8 + j];
+        this.numberMines[c] = 0;
+        this.numberLeft[c] = this.numberSize[c];
+      }
+    }
+    
+    this.componentSize = k;
+    this.solutions = new double[k + 1];
+    this.varMines = new double[k * (k + 1)];
+    this.nodes = 0;
+    this.aborted = false;
+    this.search(0, 0);
+    
+    ComponentCounts counts;
+    if (this.aborted) {
+      this.exact = false;
+      counts = this.estimate(vars);
+    }
+    else {
+      counts = new ComponentCounts(this.solutions, this.varMines, k);
+      if (this.memo.size() > 4096) {
+        this.memo.clear();
+      }
+      this.memo.put(key, counts);
+    }
+    return counts;
+  }
+  
+  //tries both values for the variable at the given depth of the search order,
+  //recording every complete layout that satisfies all the numbers
+  void search(int depth, int mines) {
+    this.nodes++;
+    if (this.nodes > this.maxNodes
+        || ((this.nodes & 1023) == 0 && System.nanoTime() > this.deadline)) {
+      this.aborted = true;
+      return;
+    }
+    if (depth == this.componentSize) {
+      this.solutions[mines] += 1;
+      for (int p = 0; p < this.componentSize; p++) {
+        int v = this.order[p];
+        if (this.assigned[v] == 1) {
+          this.varMines[this.positionOf[v] * (this.componentSize + 1) + mines] += 1;
+        }
+      }
+      return;
+    }
+    
+    int v = this.order[depth];
+    for (int value = 0; value <= 1 && !this.aborted; value++) {
+      if (this.assign(v, value)) {
+        this.search(depth + 1, mines + value);
+      }
+      this.unassign(v, value);
+    }
+  }
+  
+  //gives a variable a value, returns whether every number it touches can still be met
+  boolean assign(int v, int value) {
+    this.assigned[v] = value;
+    boolean possible = true;
+    for (int j = 0; j < this.varNumberCount[v]; j++) {
+      int c = this.varNumbers[v * 8 + j];
+      this.numberLeft[c]--;
+      this.numberMines[c] += value;
+      possible = possible && this.numberMines[c] <= this.numberNeeded[c]
+          && this.numberMines[c] + this.numberLeft[c] >= this.numberNeeded[c];
+    }
+    return possible;
+  }
+  
+  //takes a value back off a variable
+  void unassign(int v, int value) {
+    this.assigned[v] = -1;
+    for (int j = 0; j < this.varNumberCount[v]; j++) {
+      int c = this.varNumbers[v * 8 + j];
+      this.numberLeft[c]++;
+      this.numberMines[c] -= value;
+    }
+  }
+  
+  //the bounded estimate for a component too big to count: each cell is as likely to
+  //be a mine as the average of its numbers (mines needed over hidden cells), and the
+  //component is taken to always hold the nearest whole number of mines to their sum
+  ComponentCounts estimate(int[] vars) {
+    int k = vars.length;
+    double[] chance = new double[k];
+    double expected = 0;
+    for (int p = 0; p < k; p++) {
+      int v = vars[p];
+      for (int j = 0; j < this.varNumberCount[v]; j++) {
+        int c = this.varNumbers[v * 8 + j];
+        chance[p] += (double) this.numberNeeded[c] / this.numberSize[c];
+      }
+      chance[p] /= this.varNumberCount[v];
+      expected += chance[p];
+    }
+    int mines = (int) Math.round(expected);
+    double[] solutions = new double[k + 1];
+    double[] varMines = new double[k * (k + 1)];
+    solutions[mines] = 1;
+    for (int p = 0; p < k; p++) {
+      varMines[p * (k + 1) + mines] = chance[p];
+    }
+    return new ComponentCounts(solutions, varMines, k);
+  }
+  
+  //the memo key of a component: its cells, then each of its numbers (cell, mines still
+  //needed and hidden cells), which is everything its layouts depend on
+  ComponentKey keyOf(int[] vars) {
+    int numbers = 0;
+    for (int v : vars) {
+      for (int j = 0; j < this.varNumberCount[v]; j++) {
+        int c = this.varNumbers[v * 8 + j];
+        if (this.numberMines[c] != -1) {
+          this.numberMines[c] = -1;
+          this.componentNumbers[numbers] = c;
+          numbers++;
+        }
+      }
+    }
+    Arrays.sort(this.componentNumbers, 0, numbers);
+    int[] sortedVars = vars.clone();
+    Arrays.sort(sortedVars);
+    
+    int[] key = new int[1 + sortedVars.length + numbers * 3];
+    int at = 0;
+    key[at] = sortedVars.length;
+    at++;
+    for (int v : sortedVars) {
+      key[at] = this.varCell[v];
+      at++;
+    }
+    for (int n = 0; n < numbers; n++) {
+      int c = this.componentNumbers[n];
+      this.numberMines[c] = 0;
+      key[at] = this.numberCell[c];
+      key[at + 1] = this.numberNeeded[c];
+      key[at + 2] = this.numberSize[c];
+      at += 3;
+    }
+    //vars are left sorted by variable id, the order the key lists their cells in,
+    //so the stored counts line up with the key
+    System.arraycopy(sortedVars, 0, vars, 0, vars.length);
+    return new ComponentKey(key);
+  }
+  
+  //combines the components with the interior and fills in probability
+  void combine(ArrayList<int[]> members, ArrayList<ComponentCounts> counted) {
+    IBoard board = this.game.board;
+    int minesLeft = this.game.minesRemaining();
+    int interior = 0;
+    for (int index = 0; index < board.size(); index++) {
+      if (!board.isRevealed(index) && !board.isFlagged(index) && this.varOf[index] < 0) {
+        interior++;
+      }
+    }
+    
+    //how many ways each total of frontier mines can happen over all components
+    int k = members.size();
+    double[][] prefix = new double[k + 1][];
+    double[][] suffix = new double[k + 1][];
+    prefix[0] = new double[] {1};
+    suffix[k] = new double[] {1};
+    for (int c = 0; c < k; c++) {
+      prefix[c + 1] = this.convolve(prefix[c], counted.get(c).solutions);
+    }
+    for (int c = k - 1; c >= 0; c--) {
+      suffix[c] = this.convolve(counted.get(c).solutions, suffix[c + 1]);
+    }
+    double[] total = prefix[k];
+    
+    //each frontier total leaves the rest of the mines to the interior, weighted by the
+    //number of ways to place them there (scaled so the largest weight is 1)
+    double[] weight = new double[total.length];
+    double maxLog = Double.NEGATIVE_INFINITY;
+    for (int f = 0; f < total.length; f++) {
+      weight[f] = this.logChoose(interior, minesLeft - f);
+      maxLog = Math.max(maxLog, weight[f]);
+    }
+    double norm = 0;
+    double interiorMines = 0;
+    for (int f = 0; f < total.length; f++) {
+      weight[f] = weight[f] == Double.NEGATIVE_INFINITY ? 0 : Math.exp(weight[f] - maxLog);
+      norm += total[f] * weight[f];
+      interiorMines += total[f] * weight[f] * (minesLeft - f);
+    }
+    if (norm == 0) {
+      //no layout fits the mine count, so fall back to the density
+      this.exact = false;
+      this.fillDensity();
+      return;
+    }
+    
+    double interiorChance = interior == 0 ? 0 : interiorMines / norm / interior;
+    for (int index = 0; index < board.size(); index++) {
+      this.probability[index] = interiorChance;
+    }
+    for (int c = 0; c < k; c++) {
+      ComponentCounts counts = counted.get(c);
+      double[] others = this.convolve(prefix[c], suffix[c + 1]);
+      int size = counts.size;
+      //the weight of this component holding m mines, over every total of the others
+      double[] given = new double[size + 1];
+      for (int m = 0; m <= size; m++) {
+        for (int f = 0; f < others.length && m + f < weight.length; f++) {
+          given[m] += others[f] * weight[m + f];
+        }
+      }
+      int[] vars = members.get(c);
+      for (int p = 0; p < size; p++) {
+        double mine = 0;
+        for (int m = 0; m <= size; m++) {
+          mine += counts.varMines[p * (size + 1) + m] * given[m];
+        }
+        this.probability[this.varCell[vars[p]]] = mine / norm;
+      }
+    }
+  }
+  
+  //the ways to get each total by adding one from a and one from b
+  double[] convolve(double[] a, double[] b) {
+    double[] out = new double[a.length + b.length - 1];
+    for (int x = 0; x < a.length; x++) {
+      if (a[x] != 0) {
+        for (int y = 0; y < b.length; y++) {
+          out[x + y] += a[x] * b[y];
+        }
+      }
+    }
+    return out;
+  }
+  
+  //log of n choose k, or negative infinity when there is no way to choose
+  double logChoose(int n, int k) {
+    if (k < 0 || k > n) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    return this.logFactorial[n] - this.logFactorial[k] - this.logFactorial[n - k];
+  }
+  
+  //gives every hidden cell the density of the mines left
+  void fillDensity() {
+    IBoard board = this.game.board;
+    int hidden = 0;
+    for (int index = 0; index < board.size(); index++) {
+      if (!board.isRevealed(index) && !board.isFlagged(index)) {
+        hidden++;
+      }
+    }
+    double density = hidden == 0 ? 0 : Math.min(1, Math.max(0,
+        (double) this.game.minesRemaining() / hidden));
+    for (int index = 0; index < board.size(); index++) {
+      if (board.isRevealed(index)) {
+        this.probability[index] = 0;
+      }
+      else if (board.isFlagged(index)) {
+        this.probability[index] = 1;
+      }
+      else {
+        this.probability[index] = density;
+      }
+    }
+  }
+  
+}
+
+//the layouts of one frontier component: how many there are with each number of mines,
+//and for each of its cells (in cell order) how many of those put a mine on it
+class ComponentCounts {
+  double[] solutions;
+  double[] varMines;
+  int size;
+  
+  //constructor
+  ComponentCounts(double[] solutions, double[] varMines, int size) {
+    this.solutions = solutions;
+    this.varMines = varMines;
+    this.size = size;
+  }
+  
+}
+
+//a memo key made of ints, compared by contents
+class ComponentKey {
+  int[] values;
+  int hash;
+  
+  //constructor
+  ComponentKey(int[] values) {
+    this.values = values;
+    this.hash = Arrays.hashCode(values);
+  }
+  
+  //is the other object a key with the same contents?
+  public boolean equals(Object other) {
+    return other instanceof ComponentKey
+        && Arrays.equals(this.values, ((ComponentKey) other).values);
+  }
+  
+  //the hash of the contents
+  public int hashCode() {
+    return this.hash;
+  }
+  
+}